@@ -0,0 +1,68 @@
+package org.openhab.binding.atlona.internal.net;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable {@link CharSequence} view over (ISO-8859-1) bytes. The view is reused for every line framed by a session
+ * so it is only valid for the duration of the {@link SocketSessionLineListener#responseReceived(CharSequence)} call -
+ * use {@link #toString()} to keep the response.
+ */
+public final class ByteCharSequence implements CharSequence {
+
+    /**
+     * The bytes being viewed
+     */
+    private final byte[] bytes;
+
+    /**
+     * The number of bytes in the view
+     */
+    private int length;
+
+    /**
+     * Constructs the (empty) view over the bytes
+     *
+     * @param bytes the non-null bytes to view
+     */
+    ByteCharSequence(byte[] bytes) {
+        if (bytes == null) {
+            throw new IllegalArgumentException("bytes cannot be null");
+        }
+        this.bytes = bytes;
+    }
+
+    /**
+     * Sets the number of bytes in the view
+     *
+     * @param length the number of bytes (from the start of the bytes)
+     */
+    void setLength(int length) {
+        this.length = length;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range 0-" + length);
+        }
+        return (char) (bytes[index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range " + start + "-" + end + " out of range 0-" + length);
+        }
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,184 @@
+package org.openhab.binding.atlona.internal.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Frames the bytes read from a telnet session into lines without creating any objects. Bytes are copied (once) from
+ * the read buffer into a fixed line buffer and each framed line is handed out through a reused
+ * {@link ByteCharSequence} view of that buffer.
+ *
+ * <ul>
+ * <li>Lines are terminated by CR/LF (a bare LF also ends a line and CRs are dropped).</li>
+ * <li>A single word followed by ": " is a prompt awaiting input (like "Login: " or "Password: ") and is framed
+ * without the ": ".</li>
+ * <li>Telnet noise is stripped - NUL bytes and IAC command sequences (including option negotiation and
+ * subnegotiation). An escaped IAC (IAC IAC) is kept as a single 0xFF byte.</li>
+ * <li>A line reaching the maximum line length is framed as is (and framing continues with a new line).</li>
+ * </ul>
+ * The framer keeps its state between reads so sequences and lines may be split across reads.
+ */
+final class LineFramer {
+
+    /**
+     * Receives the framed lines
+     */
+    interface LineHandler {
+        /**
+         * Called for each framed line
+         *
+         * @param line the non-null, possibly empty line (only valid for the duration of the call)
+         */
+        void lineFramed(ByteCharSequence line);
+    }
+
+    // Telnet command bytes
+    private static final int IAC = 0xff;
+    private static final int SB = 0xfa;
+    private static final int SE = 0xf0;
+    private static final int WILL = 0xfb;
+    private static final int DONT = 0xfe;
+
+    // Framing states
+    private static final int STATE_DATA = 0;
+    private static final int STATE_IAC = 1;
+    private static final int STATE_OPTION = 2;
+    private static final int STATE_SB = 3;
+    private static final int STATE_SB_IAC = 4;
+
+    /**
+     * The line being framed
+     */
+    private final byte[] line;
+
+    /**
+     * The reused view of {@link #line}
+     */
+    private final ByteCharSequence view;
+
+    /**
+     * The number of bytes in the line being framed
+     */
+    private int length;
+
+    /**
+     * Whether the line being framed contains a space (and therefore can't be a prompt)
+     */
+    private boolean hasSpace;
+
+    /**
+     * The framing (telnet) state
+     */
+    private int state = STATE_DATA;
+
+    /**
+     * Constructs the framer with the given maximum line length
+     *
+     * @param maxLineLength a greater than 0 maximum line length
+     */
+    LineFramer(int maxLineLength) {
+        if (maxLineLength < 1) {
+            throw new IllegalArgumentException("maxLineLength must be greater than 0");
+        }
+        line = new byte[maxLineLength];
+        view = new ByteCharSequence(line);
+    }
+
+    /**
+     * Frames all the remaining bytes of the buffer
+     *
+     * @param buffer a non-null buffer (ready for reading)
+     * @param handler a non-null handler for the framed lines
+     */
+    void frame(ByteBuffer buffer, LineHandler handler) {
+        while (buffer.hasRemaining()) {
+            final int b = buffer.get() & 0xff;
+            switch (state) {
+                case STATE_IAC:
+                    if (b == IAC) {
+                        state = STATE_DATA;
+                        data(b, handler);
+                    } else if (b == SB) {
+                        state = STATE_SB;
+                    } else if (b >= WILL && b <= DONT) {
+                        state = STATE_OPTION;
+                    } else {
+                        state = STATE_DATA;
+                    }
+                    break;
+
+                case STATE_OPTION:
+                    state = STATE_DATA;
+                    break;
+
+                case STATE_SB:
+                    if (b == IAC) {
+                        state = STATE_SB_IAC;
+                    }
+                    break;
+
+                case STATE_SB_IAC:
+                    state = b == SE ? STATE_DATA : STATE_SB;
+                    break;
+
+                default:
+                    if (b == IAC) {
+                        state = STATE_IAC;
+                    } else {
+                        data(b, handler);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Forgets any partially framed line and telnet sequence
+     */
+    void reset() {
+        length = 0;
+        hasSpace = false;
+        state = STATE_DATA;
+    }
+
+    /**
+     * Adds a data byte to the line (or frames the line)
+     *
+     * @param b the data byte
+     * @param handler a non-null handler for the framed lines
+     */
+    private void data(int b, LineHandler handler) {
+        if (b == '\n') {
+            emit(handler);
+            return;
+        }
+
+        // a CR only matters as part of a CR/LF (which the LF takes care of)
+        if (b == '\r' || b == 0) {
+            return;
+        }
+
+        if (b == ' ' && !hasSpace && length > 0 && line[length - 1] == ':') {
+            length--;
+            emit(handler);
+            return;
+        }
+
+        hasSpace |= b == ' ';
+        line[length++] = (byte) b;
+        if (length == line.length) {
+            emit(handler);
+        }
+    }
+
+    /**
+     * Hands the line to the handler and starts a new line
+     *
+     * @param handler a non-null handler for the framed lines
+     */
+    private void emit(LineHandler handler) {
+        view.setLength(length);
+        length = 0;
+        hasSpace = false;
+        handler.lineFramed(view);
+    }
+}
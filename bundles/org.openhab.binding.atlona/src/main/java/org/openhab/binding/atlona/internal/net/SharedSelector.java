@@ -0,0 +1,210 @@
+package org.openhab.binding.atlona.internal.net;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single I/O thread multiplexing the socket channels of all {@link SharedSelectorSession}s through one
+ * {@link Selector}. The number of threads stays flat no matter how many switches are connected. The shared selector is
+ * reference counted by the connected sessions (see {@link #acquire()} and {@link #release()}) - its daemon thread is
+ * started when the first session connects and, once the last session has disconnected, the thread exits and the
+ * selector is closed (so nothing is left running when the bundle is stopped).
+ *
+ * Everything touching the selector (registration, interest changes) is queued with {@link #execute(Runnable)} and run
+ * on the I/O thread so that no other thread ever blocks on the selector. Repeated failures of the selector are backed
+ * off (from {@link #MIN_FAILURE_BACKOFF} doubling up to {@link #MAX_FAILURE_BACKOFF} milliseconds) rather than retried
+ * in a tight loop.
+ */
+final class SharedSelector implements Runnable {
+
+    private final Logger logger = LoggerFactory.getLogger(SharedSelector.class);
+
+    /**
+     * The name of the I/O thread
+     */
+    private static final String THREAD_NAME = "atlona-selector";
+
+    /**
+     * The time (in milliseconds) to wait after the selector first fails
+     */
+    private static final long MIN_FAILURE_BACKOFF = 100;
+
+    /**
+     * The longest time (in milliseconds) to wait after the selector fails
+     */
+    private static final long MAX_FAILURE_BACKOFF = 5000;
+
+    /**
+     * The shared instance (null if no session has acquired it)
+     */
+    private static SharedSelector instance;
+
+    /**
+     * The number of sessions that acquired the shared instance (and haven't released it)
+     */
+    private static int references;
+
+    /**
+     * The selector all session channels are registered with
+     */
+    private final Selector selector;
+
+    /**
+     * Tasks to run on the I/O thread
+     */
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether the I/O thread should keep running (false once the last session released the selector)
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Acquires the shared selector for a session - starting it if needed. Every call must be paired with a call to
+     * {@link #release()}.
+     *
+     * @return the non-null shared selector
+     * @throws IOException if the selector could not be opened
+     */
+    static synchronized SharedSelector acquire() throws IOException {
+        if (instance == null) {
+            final SharedSelector newInstance = new SharedSelector(Selector.open());
+            final Thread thread = new Thread(newInstance, THREAD_NAME);
+            thread.setDaemon(true);
+            thread.start();
+            instance = newInstance;
+        }
+        references++;
+        return instance;
+    }
+
+    /**
+     * Releases the shared selector acquired by a session (see {@link #acquire()}). Once released by every session, the
+     * I/O thread exits and the selector is closed.
+     */
+    static synchronized void release() {
+        if (references <= 0 || instance == null) {
+            return;
+        }
+
+        references--;
+        if (references == 0) {
+            instance.running = false;
+            instance.selector.wakeup();
+            instance = null;
+        }
+    }
+
+    /**
+     * Constructs the shared selector around the selector
+     *
+     * @param selector a non-null, open selector
+     */
+    private SharedSelector(Selector selector) {
+        this.selector = selector;
+    }
+
+    /**
+     * Runs the task on the I/O thread (waking the thread up if it is waiting on the selector)
+     *
+     * @param task a non-null task
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Registers the (connected, non-blocking) channel of the session for reads. Must be called on the I/O thread (see
+     * {@link #execute(Runnable)}).
+     *
+     * @param channel a non-null socket channel
+     * @param session the non-null session the channel belongs to
+     * @return the non-null selection key
+     * @throws ClosedChannelException if the channel was closed before it could be registered
+     */
+    SelectionKey register(SocketChannel channel, SharedSelectorSession session) throws ClosedChannelException {
+        return channel.register(selector, SelectionKey.OP_READ, session);
+    }
+
+    @Override
+    public void run() {
+        long backoff = 0;
+        while (running) {
+            try {
+                selector.select();
+                backoff = 0;
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (backoff == 0) {
+                    logger.warn("Exception selecting Atlona sessions: {}", e.getMessage(), e);
+                    backoff = MIN_FAILURE_BACKOFF;
+                } else {
+                    logger.debug("Exception selecting Atlona sessions (retrying in {}ms): {}", backoff,
+                            e.getMessage());
+                    backoff = Math.min(MAX_FAILURE_BACKOFF, backoff * 2);
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                continue;
+            }
+
+            if (!running) {
+                break;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.warn("Exception running Atlona selector task: {}", e.getMessage(), e);
+                }
+            }
+
+            final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                final SelectionKey key = keys.next();
+                keys.remove();
+
+                final SharedSelectorSession session = (SharedSelectorSession) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        session.readReady();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        session.writeReady();
+                    }
+                } catch (CancelledKeyException e) {
+                    // session was disconnected - ignore
+                } catch (RuntimeException e) {
+                    logger.warn("Exception handling Atlona session I/O: {}", e.getMessage(), e);
+                }
+            }
+        }
+
+        tasks.clear();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.debug("Exception closing the Atlona selector: {}", e.getMessage());
+        }
+        logger.debug("Atlona selector stopped");
+    }
+}
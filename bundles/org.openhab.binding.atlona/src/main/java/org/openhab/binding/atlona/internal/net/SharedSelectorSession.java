@@ -0,0 +1,418 @@
+package org.openhab.binding.atlona.internal.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SocketSession} whose socket channel is multiplexed with every other session's by the
+ * {@link SharedSelector} - no thread is dedicated to reading a session. Responses are framed into lines and
+ * dispatched to the listeners on the shared I/O thread, so listeners must not block.
+ *
+ * Responses are framed by a {@link LineFramer} (which also strips telnet noise and the ": " from prompts like
+ * "Login: "). Empty lines are dispatched as empty responses. Reading and framing allocate nothing -
+ * {@link SocketSessionLineListener}s are handed a reused view of the line and a String is only created (once per line)
+ * if a plain {@link SocketSessionListener} is listening.
+ *
+ * Per session memory is bounded - a fixed (direct) read buffer, a fixed line buffer that is flushed once it reaches
+ * {@link #MAX_LINE_LENGTH} and the commands that could not be written yet.
+ */
+public class SharedSelectorSession implements SocketSession {
+
+    private final Logger logger = LoggerFactory.getLogger(SharedSelectorSession.class);
+
+    /**
+     * The time (in milliseconds) to wait for a connection to be established
+     */
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    /**
+     * The size of the read buffer
+     */
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    /**
+     * The longest line buffered - a longer line is dispatched in pieces of this length
+     */
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    /**
+     * The delimiter appended to every command
+     */
+    private static final String COMMAND_DELIMITER = "\r\n";
+
+    /**
+     * The host or ip address to connect to
+     */
+    private final String host;
+
+    /**
+     * The port to connect to
+     */
+    private final int port;
+
+    /**
+     * The listeners to dispatch responses to
+     */
+    private final List<SocketSessionListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The buffer responses are read into (only used by the I/O thread)
+     */
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+    /**
+     * Frames the responses read into lines (only used by the I/O thread)
+     */
+    private final LineFramer framer = new LineFramer(MAX_LINE_LENGTH);
+
+    /**
+     * Dispatches the framed lines (created once so framing allocates nothing)
+     */
+    private final LineFramer.LineHandler dispatcher = this::dispatch;
+
+    /**
+     * The commands (or remainders of commands) not yet written to the channel
+     */
+    private final Deque<ByteBuffer> writeQueue = new ArrayDeque<>();
+
+    /**
+     * The channel to the switch (null if not connected)
+     */
+    private volatile SocketChannel channel;
+
+    /**
+     * The selection key of the channel (null until registered)
+     */
+    private volatile SelectionKey key;
+
+    /**
+     * The {@link SharedSelector} acquired while connected (null if not connected) - released on disconnect
+     */
+    private final AtomicReference<SharedSelector> selector = new AtomicReference<>();
+
+    /**
+     * Creates the session for the host and port
+     *
+     * @param host a non-null, non-empty host name or ip address
+     * @param port the port to connect to
+     */
+    public SharedSelectorSession(String host, int port) {
+        if (host == null || host.trim().length() == 0) {
+            throw new IllegalArgumentException("host cannot be null or empty");
+        }
+
+        if (port < 1) {
+            throw new IllegalArgumentException("port must be greater than 0");
+        }
+
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public void addListener(SocketSessionListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener cannot be null");
+        }
+        listeners.add(listener);
+    }
+
+    @Override
+    public void clearListeners() {
+        listeners.clear();
+    }
+
+    @Override
+    public boolean removeListener(SocketSessionListener listener) {
+        return listeners.remove(listener);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Establishes the connection (with TCP_NODELAY since commands are small and latency sensitive) and registers the
+     * channel with the {@link SharedSelector} (acquiring it until disconnected). Does nothing if already connected.
+     */
+    @Override
+    public void connect() throws IOException {
+        if (isConnected()) {
+            return;
+        }
+        disconnect();
+
+        final SocketChannel newChannel = SocketChannel.open();
+        try {
+            newChannel.socket().setTcpNoDelay(true);
+            newChannel.socket().setKeepAlive(true);
+            newChannel.socket().connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+            newChannel.configureBlocking(false);
+        } catch (IOException e) {
+            newChannel.close();
+            throw e;
+        }
+
+        final SharedSelector newSelector;
+        try {
+            newSelector = SharedSelector.acquire();
+        } catch (IOException e) {
+            newChannel.close();
+            throw e;
+        }
+
+        channel = newChannel;
+        final SharedSelector replaced = selector.getAndSet(newSelector);
+        if (replaced != null) {
+            // a concurrent connect - only one selector reference is held per session
+            SharedSelector.release();
+        }
+        newSelector.execute(() -> {
+            framer.reset();
+            try {
+                final SelectionKey newKey = newSelector.register(newChannel, this);
+                synchronized (writeQueue) {
+                    // commands sent before the channel was registered
+                    if (!writeQueue.isEmpty()) {
+                        newKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    }
+                    key = newKey;
+                }
+            } catch (ClosedChannelException e) {
+                // disconnected before being registered - ignore
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Closes the channel and releases the {@link SharedSelector} (which stops once no session is connected).
+     */
+    @Override
+    public void disconnect() throws IOException {
+        final SocketChannel localChannel = channel;
+        channel = null;
+        key = null;
+        synchronized (writeQueue) {
+            writeQueue.clear();
+        }
+        try {
+            if (localChannel != null) {
+                // closing the channel also cancels its selection key
+                localChannel.close();
+            }
+        } finally {
+            if (selector.getAndSet(null) != null) {
+                SharedSelector.release();
+            }
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        final SocketChannel localChannel = channel;
+        return localChannel != null && localChannel.isConnected();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The command is written directly if nothing is waiting to be written - otherwise (or if the socket's send buffer
+     * is full) it is queued and written by the I/O thread when the channel is writable.
+     */
+    @Override
+    public void sendCommand(String command) throws IOException {
+        if (command == null) {
+            throw new IllegalArgumentException("command cannot be null");
+        }
+
+        final SocketChannel localChannel = channel;
+        if (localChannel == null || !localChannel.isConnected()) {
+            throw new IOException("Cannot send command - not connected");
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap((command + COMMAND_DELIMITER).getBytes(StandardCharsets.ISO_8859_1));
+        synchronized (writeQueue) {
+            if (writeQueue.isEmpty()) {
+                localChannel.write(buffer);
+                if (!buffer.hasRemaining()) {
+                    return;
+                }
+            }
+            writeQueue.add(buffer);
+            setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Writes a batch of commands (each already followed by the CR/LF delimiter) from the buffer - typically a reused
+     * direct buffer so writing a batch copies nothing. The batch is written directly if nothing is waiting to be
+     * written - whatever can't be written immediately is copied and written by the I/O thread when the channel is
+     * writable. The buffer is only read during the call (from its position to its limit) and can be reused afterwards.
+     *
+     * @param commands a non-null buffer of delimited commands
+     * @throws IOException if the session is not connected or the batch could not be written
+     */
+    public void sendCommands(ByteBuffer commands) throws IOException {
+        if (commands == null) {
+            throw new IllegalArgumentException("commands cannot be null");
+        }
+
+        final SocketChannel localChannel = channel;
+        if (localChannel == null || !localChannel.isConnected()) {
+            throw new IOException("Cannot send commands - not connected");
+        }
+
+        synchronized (writeQueue) {
+            if (writeQueue.isEmpty()) {
+                localChannel.write(commands);
+                if (!commands.hasRemaining()) {
+                    return;
+                }
+            }
+            final ByteBuffer remainder = ByteBuffer.allocate(commands.remaining());
+            remainder.put(commands);
+            remainder.flip();
+            writeQueue.add(remainder);
+            setInterest(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Called by the I/O thread when the channel has data to read. Frames the data into lines and dispatches them.
+     */
+    void readReady() {
+        final SocketChannel localChannel = channel;
+        if (localChannel == null) {
+            return;
+        }
+
+        int read;
+        try {
+            readBuffer.clear();
+            read = localChannel.read(readBuffer);
+        } catch (IOException e) {
+            failed(e);
+            return;
+        }
+
+        if (read < 0) {
+            failed(new IOException("Connection closed by the switch"));
+            return;
+        }
+
+        readBuffer.flip();
+        framer.frame(readBuffer, dispatcher);
+    }
+
+    /**
+     * Called by the I/O thread when the channel is writable. Writes as much of the queued commands as possible.
+     */
+    void writeReady() {
+        final SocketChannel localChannel = channel;
+        if (localChannel == null) {
+            return;
+        }
+
+        IOException failure = null;
+        synchronized (writeQueue) {
+            try {
+                while (!writeQueue.isEmpty()) {
+                    final ByteBuffer buffer = writeQueue.peek();
+                    localChannel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        return;
+                    }
+                    writeQueue.poll();
+                }
+
+                // everything written - stop waiting for the channel to be writable (we are on the I/O thread)
+                final SelectionKey localKey = key;
+                if (localKey != null && localKey.isValid()) {
+                    localKey.interestOps(SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                writeQueue.clear();
+                failure = e;
+            }
+        }
+
+        // outside the lock - the listeners may stop whatever is sending (which may be waiting on the lock)
+        if (failure != null) {
+            failed(failure);
+        }
+    }
+
+    /**
+     * Dispatches the framed line to the listeners
+     *
+     * @param line the non-null line (only valid for the duration of the call)
+     */
+    private void dispatch(ByteCharSequence line) {
+        String response = null;
+        for (SocketSessionListener listener : listeners) {
+            try {
+                if (listener instanceof SocketSessionLineListener) {
+                    ((SocketSessionLineListener) listener).responseReceived(line);
+                } else {
+                    if (response == null) {
+                        response = line.toString();
+                    }
+                    listener.responseReceived(response);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Exception dispatching response '{}': {}", line, e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Disconnects and dispatches the exception to the listeners
+     *
+     * @param e the non-null exception
+     */
+    private void failed(Exception e) {
+        try {
+            disconnect();
+        } catch (IOException e1) {
+            // ignore - we are failing anyway
+        }
+        for (SocketSessionListener listener : listeners) {
+            try {
+                listener.responseException(e);
+            } catch (RuntimeException e1) {
+                logger.warn("Exception dispatching exception '{}': {}", e, e1.getMessage(), e1);
+            }
+        }
+    }
+
+    /**
+     * Sets the interest ops of the channel's selection key on the I/O thread
+     *
+     * @param ops the interest ops
+     */
+    private void setInterest(int ops) {
+        final SelectionKey localKey = key;
+        final SharedSelector localSelector = selector.get();
+        if (localKey == null || localSelector == null) {
+            return;
+        }
+        localSelector.execute(() -> {
+            if (localKey.isValid()) {
+                localKey.interestOps(ops);
+            }
+        });
+    }
+}
@@ -0,0 +1,26 @@
+package org.openhab.binding.atlona.internal.net;
+
+/**
+ * A {@link SocketSessionListener} that can handle responses as a {@link CharSequence} - sessions that frame responses
+ * in place (like {@link SharedSelectorSession}) hand these listeners a reused view of the response rather than
+ * creating a String for every response. The view is only valid for the duration of the call.
+ */
+public interface SocketSessionLineListener extends SocketSessionListener {
+
+    /**
+     * Called when a response has been received
+     *
+     * @param response a non-null, possibly empty response that is only valid for the duration of the call
+     */
+    void responseReceived(CharSequence response);
+
+    /**
+     * {@inheritDoc}
+     *
+     * Bridges String responses (from sessions that don't frame in place) to {@link #responseReceived(CharSequence)}
+     */
+    @Override
+    default void responseReceived(String response) {
+        responseReceived((CharSequence) response);
+    }
+}
@@ -1,19 +1,41 @@
 package org.openhab.binding.atlona.internal.opus;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.openhab.binding.atlona.internal.handler.AtlonaCapabilities;
 
 /**
  * The capabilities class for the Atlona OPUS line. Each OPUS model differs in the number of (input) HDMI ports, the
- * number of (output) video and audio ports.
+ * number of (output) video and audio ports. The capabilities of each model are known (see {@link #forType(String)}) so
+ * the capabilities can be derived from the type the switch reports.
  *
  * @author Brian Higginbotham - Initial contribution
  * @author Tim Roberts - Code Adopted from initial
  */
 public class AtlonaOpusCapabilities extends AtlonaCapabilities {
+    /**
+     * The prefix and suffix of the type the switch reports ("AT-OPUS-810M")
+     */
+    private static final String TYPE_PREFIX = "AT-OPUS-";
+    private static final String TYPE_SUFFIX = "M";
+
+    /**
+     * The capabilities of each model by model number (the inputs followed by the outputs - "810" is 8x10). The last
+     * two outputs of each model are HDMI outputs, the others are HDBaseT outputs (with power and audio).
+     */
+    private static final Map<String, AtlonaOpusCapabilities> MODELS = new HashMap<>();
+
+    static {
+        MODELS.put("46", new AtlonaOpusCapabilities(4, 4, new HashSet<>(Arrays.asList(5, 6))));
+        MODELS.put("68", new AtlonaOpusCapabilities(6, 6, new HashSet<>(Arrays.asList(7, 8))));
+        MODELS.put("810", new AtlonaOpusCapabilities(8, 8, new HashSet<>(Arrays.asList(9, 10))));
+    }
+
     /**
      * Number of output power ports
      */
@@ -86,4 +108,54 @@ public class AtlonaOpusCapabilities extends AtlonaCapabilities {
     Set<Integer> getHdmiPorts() {
         return hdmiPorts;
     }
+
+    /**
+     * Returns the highest port number of any power, audio or hdmi port
+     *
+     * @return a greater than 0 port number
+     */
+    int getMaxPortNbr() {
+        int maxPortNbr = Math.max(nbrPowerPorts, nbrAudioPorts);
+        for (int hdmiPortNbr : hdmiPorts) {
+            maxPortNbr = Math.max(maxPortNbr, hdmiPortNbr);
+        }
+        return maxPortNbr;
+    }
+
+    /**
+     * Returns the capabilities of the model the switch reported
+     *
+     * @param type a possibly null, possibly empty type reported by the switch (like "AT-OPUS-810M")
+     * @return the capabilities of the model or null if the type isn't a known model
+     */
+    static AtlonaOpusCapabilities forType(String type) {
+        if (type == null || !type.startsWith(TYPE_PREFIX) || !type.endsWith(TYPE_SUFFIX)
+                || type.length() <= TYPE_PREFIX.length() + TYPE_SUFFIX.length()) {
+            return null;
+        }
+        return MODELS.get(type.substring(TYPE_PREFIX.length(), type.length() - TYPE_SUFFIX.length()));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof AtlonaOpusCapabilities)) {
+            return false;
+        }
+        final AtlonaOpusCapabilities other = (AtlonaOpusCapabilities) obj;
+        return nbrPowerPorts == other.nbrPowerPorts && nbrAudioPorts == other.nbrAudioPorts
+                && hdmiPorts.equals(other.hdmiPorts);
+    }
+
+    @Override
+    public int hashCode() {
+        return (nbrPowerPorts * 31 + nbrAudioPorts) * 31 + hdmiPorts.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "power ports: " + nbrPowerPorts + ", audio ports: " + nbrAudioPorts + ", hdmi ports: " + hdmiPorts;
+    }
 }
@@ -0,0 +1,72 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.Arrays;
+
+import org.openhab.binding.atlona.internal.opus.AtlonaOpusCommand.Type;
+
+/**
+ * Tracks when the state of each channel was last confirmed by the switch (either by a response to one of our queries
+ * or by a broadcast notification). Used in push mode to only re-query the channels whose state has not been confirmed
+ * within the state TTL. The times are kept in flat arrays indexed by response type and port number.
+ */
+class AtlonaOpusChannelFreshness {
+
+    /**
+     * The last confirmed time (in milliseconds, 0 if never) indexed by response type ordinal then port number
+     */
+    private final long[][] confirmed;
+
+    /**
+     * Constructs the freshness tracker for the ports described by the capabilities
+     *
+     * @param capabilities a non-null {@link AtlonaOpusCapabilities}
+     */
+    AtlonaOpusChannelFreshness(AtlonaOpusCapabilities capabilities) {
+        if (capabilities == null) {
+            throw new IllegalArgumentException("capabilities cannot be null");
+        }
+
+        confirmed = new long[Type.values().length][capabilities.getMaxPortNbr() + 1];
+    }
+
+    /**
+     * Records that the state for the response type and port number has been confirmed
+     *
+     * @param type a non-null response type
+     * @param portNbr the port number (or 0 if none)
+     * @param now the current time in milliseconds
+     */
+    void confirm(Type type, int portNbr, long now) {
+        final long[] times = confirmed[type.ordinal()];
+        if (portNbr >= 0 && portNbr < times.length) {
+            times[portNbr] = now;
+        }
+    }
+
+    /**
+     * Determines if the state for the response type and port number has not been confirmed within the TTL
+     *
+     * @param type a non-null response type
+     * @param portNbr the port number (or 0 if none)
+     * @param now the current time in milliseconds
+     * @param ttlMillis the time (in milliseconds) a confirmed state stays fresh
+     * @return true if the state should be re-queried
+     */
+    boolean isStale(Type type, int portNbr, long now, long ttlMillis) {
+        final long[] times = confirmed[type.ordinal()];
+        if (portNbr < 0 || portNbr >= times.length) {
+            return true;
+        }
+        final long last = times[portNbr];
+        return last == 0 || now - last > ttlMillis;
+    }
+
+    /**
+     * Forgets all confirmations (forcing all state to be re-queried)
+     */
+    void clear() {
+        for (long[] times : confirmed) {
+            Arrays.fill(times, 0);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.smarthome.core.thing.ChannelUID;
+import org.eclipse.smarthome.core.thing.ThingUID;
+
+/**
+ * An immutable index of every channel id (and {@link ChannelUID}) the switch can have. The set of channels is fixed by
+ * the {@link AtlonaOpusCapabilities} so the ids are built once (when the capabilities are known) and looked up by
+ * {@link Channel} and port number through flat arrays - state updates then don't need to create any strings or
+ * {@link ChannelUID}s. Each channel only has the ports the capabilities define for it - the power ports for the port
+ * channels, the HDMI ports for the mirror channels and the audio ports for the volume channels.
+ */
+class AtlonaOpusChannelIndex {
+
+    /**
+     * The channels of the switch. Channels in the primary group have no port number (the port number is ignored).
+     */
+    enum Channel {
+        POWER(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_POWER, false),
+        PANELLOCK(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_PANELLOCK, false),
+        IRENABLE(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_IRENABLE, false),
+        PRESETCMDS(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_PRESETCMDS, false),
+        MATRIXCMDS(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_MATRIXCMDS, false),
+        THROTTLED(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_THROTTLED, false),
+        THROTTLEWAIT(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_THROTTLEWAIT, false),
+        PORTPOWER(AtlonaOpusConstants.GROUP_PORT, AtlonaOpusConstants.CHANNEL_PORTPOWER, true),
+        PORTOUTPUT(AtlonaOpusConstants.GROUP_PORT, AtlonaOpusConstants.CHANNEL_PORTOUTPUT, true),
+        PORTMIRROR(AtlonaOpusConstants.GROUP_MIRROR, AtlonaOpusConstants.CHANNEL_PORTMIRROR, true),
+        PORTMIRRORENABLED(AtlonaOpusConstants.GROUP_MIRROR, AtlonaOpusConstants.CHANNEL_PORTMIRRORENABLED, true),
+        VOLUME(AtlonaOpusConstants.GROUP_VOLUME, AtlonaOpusConstants.CHANNEL_VOLUME, true),
+        VOLUME_MUTE(AtlonaOpusConstants.GROUP_VOLUME, AtlonaOpusConstants.CHANNEL_VOLUME_MUTE, true);
+
+        /**
+         * The channel group (without a port number)
+         */
+        private final String group;
+
+        /**
+         * The channel id within the group
+         */
+        private final String channelId;
+
+        /**
+         * Whether the group has a port number
+         */
+        private final boolean ported;
+
+        Channel(String group, String channelId, boolean ported) {
+            this.group = group;
+            this.channelId = channelId;
+            this.ported = ported;
+        }
+    }
+
+    /**
+     * Visits the channels of the index
+     */
+    interface ChannelVisitor {
+        /**
+         * Called for each channel (and port number) in the index
+         *
+         * @param channel a non-null channel
+         * @param portNbr the port number (0 for primary channels)
+         * @param channelUID the non-null {@link ChannelUID} of the channel
+         */
+        void visit(Channel channel, int portNbr, ChannelUID channelUID);
+    }
+
+    /**
+     * The UID of the thing the channels belong to
+     */
+    private final ThingUID thingUID;
+
+    /**
+     * The channel ids indexed by channel ordinal then port number (primary channels are at port number 0)
+     */
+    private final String[][] channelIds;
+
+    /**
+     * The channel UIDs indexed the same way as {@link #channelIds}
+     */
+    private final ChannelUID[][] channelUIDs;
+
+    /**
+     * The channel UIDs by their channel id
+     */
+    private final Map<String, ChannelUID> channelUIDsById = new HashMap<>();
+
+    /**
+     * Constructs the index for the thing and the ports described by the capabilities
+     *
+     * @param thingUID a non-null {@link ThingUID}
+     * @param capabilities a non-null {@link AtlonaOpusCapabilities}
+     */
+    AtlonaOpusChannelIndex(ThingUID thingUID, AtlonaOpusCapabilities capabilities) {
+        if (thingUID == null) {
+            throw new IllegalArgumentException("thingUID cannot be null");
+        }
+        if (capabilities == null) {
+            throw new IllegalArgumentException("capabilities cannot be null");
+        }
+
+        this.thingUID = thingUID;
+        final Channel[] channels = Channel.values();
+        final int maxPortNbr = capabilities.getMaxPortNbr();
+        channelIds = new String[channels.length][];
+        channelUIDs = new ChannelUID[channels.length][];
+
+        for (Channel channel : channels) {
+            int nbrPorts = 1;
+            for (int portNbr = 1; channel.ported && portNbr <= maxPortNbr; portNbr++) {
+                if (hasPort(capabilities, channel, portNbr)) {
+                    nbrPorts = portNbr + 1;
+                }
+            }
+            final String[] ids = new String[nbrPorts];
+            final ChannelUID[] uids = new ChannelUID[nbrPorts];
+
+            for (int portNbr = channel.ported ? 1 : 0; portNbr < nbrPorts; portNbr++) {
+                if (channel.ported && !hasPort(capabilities, channel, portNbr)) {
+                    continue;
+                }
+                final String groupId = channel.ported ? channel.group + portNbr : channel.group;
+                ids[portNbr] = AtlonaOpusUtilities.createChannelID(groupId, channel.channelId);
+                uids[portNbr] = new ChannelUID(thingUID, groupId, channel.channelId);
+                channelUIDsById.put(ids[portNbr], uids[portNbr]);
+            }
+
+            channelIds[channel.ordinal()] = ids;
+            channelUIDs[channel.ordinal()] = uids;
+        }
+    }
+
+    /**
+     * Determines whether the capabilities define the port for the (ported) channel
+     *
+     * @param capabilities a non-null {@link AtlonaOpusCapabilities}
+     * @param channel a non-null ported channel
+     * @param portNbr a greater than 0 port number
+     * @return true if the channel has the port, false otherwise
+     */
+    private static boolean hasPort(AtlonaOpusCapabilities capabilities, Channel channel, int portNbr) {
+        switch (channel) {
+            case PORTPOWER:
+            case PORTOUTPUT:
+                return portNbr <= capabilities.getNbrPowerPorts();
+            case PORTMIRROR:
+            case PORTMIRRORENABLED:
+                return capabilities.getHdmiPorts().contains(portNbr);
+            case VOLUME:
+            case VOLUME_MUTE:
+                return portNbr <= capabilities.getNbrAudioPorts();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the UID of the thing the channels belong to
+     *
+     * @return a non-null {@link ThingUID}
+     */
+    ThingUID getThingUID() {
+        return thingUID;
+    }
+
+    /**
+     * Visits every channel (and port number) in the index
+     *
+     * @param visitor a non-null visitor
+     */
+    void forEachChannel(ChannelVisitor visitor) {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor cannot be null");
+        }
+
+        for (Channel channel : Channel.values()) {
+            final ChannelUID[] uids = channelUIDs[channel.ordinal()];
+            for (int portNbr = channel.ported ? 1 : 0; portNbr < uids.length; portNbr++) {
+                if (uids[portNbr] != null) {
+                    visitor.visit(channel, portNbr, uids[portNbr]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the channel id of a primary channel
+     *
+     * @param channel a non-null primary channel
+     * @return a non-null channel id
+     */
+    String getChannelId(Channel channel) {
+        return getChannelId(channel, 0);
+    }
+
+    /**
+     * Returns the channel id of the channel for the port number. A port the capabilities don't define for the channel
+     * (which shouldn't happen) results in a newly created channel id.
+     *
+     * @param channel a non-null channel
+     * @param portNbr the port number (ignored for primary channels)
+     * @return a non-null channel id
+     */
+    String getChannelId(Channel channel, int portNbr) {
+        final String[] ids = channelIds[channel.ordinal()];
+        if (!channel.ported) {
+            return ids[0];
+        }
+        if (portNbr > 0 && portNbr < ids.length && ids[portNbr] != null) {
+            return ids[portNbr];
+        }
+        return AtlonaOpusUtilities.createChannelID(channel.group, portNbr, channel.channelId);
+    }
+
+    /**
+     * Returns the {@link ChannelUID} of the channel for the port number
+     *
+     * @param channel a non-null channel
+     * @param portNbr the port number (ignored for primary channels)
+     * @return the {@link ChannelUID} or null if the capabilities don't define the port for the channel
+     */
+    ChannelUID getChannelUID(Channel channel, int portNbr) {
+        final ChannelUID[] uids = channelUIDs[channel.ordinal()];
+        if (!channel.ported) {
+            return uids[0];
+        }
+        return portNbr > 0 && portNbr < uids.length ? uids[portNbr] : null;
+    }
+
+    /**
+     * Returns the {@link ChannelUID} for a channel id
+     *
+     * @param channelId a non-null channel id
+     * @return the {@link ChannelUID} or null if the channel id is not one of the indexed channels
+     */
+    ChannelUID getChannelUID(String channelId) {
+        return channelUIDsById.get(channelId);
+    }
+}
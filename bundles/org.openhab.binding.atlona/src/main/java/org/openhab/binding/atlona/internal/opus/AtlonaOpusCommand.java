@@ -0,0 +1,310 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A single command sent to the switch through the {@link AtlonaOpusCommandPipeline}. The command knows the shape of the
+ * response it expects (the response {@link Type} and port number) so that the response can be correlated back to the
+ * command.
+ *
+ * Commands that set a value (like a volume level or a routing) can be marked as coalescing. While a coalescing command
+ * is queued but not yet sent, a newer coalescing command with the same response type and port number replaces it (last
+ * write wins).
+ *
+ * Every command is queued in the lane of its {@link Priority} - interactive commands are always sent ahead of refresh
+ * queries which are sent ahead of background polling.
+ */
+class AtlonaOpusCommand {
+
+    /**
+     * The priorities (lanes) of commands - highest first
+     */
+    enum Priority {
+        /**
+         * Commands from the user (channel commands)
+         */
+        INTERACTIVE,
+
+        /**
+         * Queries refreshing specific channels (channel refreshes)
+         */
+        REFRESH,
+
+        /**
+         * Queries polling the whole state of the switch
+         */
+        BACKGROUND
+    }
+
+    /**
+     * The types of responses the switch will send back
+     */
+    enum Type {
+        POWER,
+        VERSION,
+        TYPE,
+        PANEL_LOCK,
+        PORT_RESET,
+        PORT_POWER,
+        PORT_ALL,
+        PORT_OUTPUT,
+        PORT_MIRROR,
+        PORT_UNMIRROR,
+        VOLUME,
+        VOLUME_MUTE,
+        IR,
+        SAVE_IO,
+        RECALL_IO,
+        CLEAR_IO,
+        MATRIX_RESET,
+        BROADCAST,
+        PING
+    }
+
+    /**
+     * The text of the command sent to the switch
+     */
+    private final String text;
+
+    /**
+     * The type of response expected
+     */
+    private final Type type;
+
+    /**
+     * The port number expected in the response (or 0 if the command isn't for a specific port - in which case any
+     * response of the same type will complete the command)
+     */
+    private final int portNbr;
+
+    /**
+     * Whether the command can be replaced by a newer command for the same response type and port number
+     */
+    private final boolean coalesce;
+
+    /**
+     * The time (in milliseconds) before which a coalescing command will not be sent
+     */
+    private long notBefore;
+
+    /**
+     * The time (in milliseconds) the command will wait for its response (or 0 to use the pipeline's command timeout)
+     */
+    private long responseTimeout;
+
+    /**
+     * The priority of the command (null until set - the pipeline assigns one when submitted)
+     */
+    private Priority priority;
+
+    /**
+     * The future completed when the expected response is received (or completed exceptionally on failure)
+     */
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    /**
+     * The timeout scheduled when the command was sent. Null if the command hasn't been sent yet
+     */
+    private ScheduledFuture<?> timeout;
+
+    /**
+     * Constructs the command from the given parameters
+     *
+     * @param text a non-null, non-empty command
+     * @param type a non-null expected response type
+     * @param portNbr the expected port number (or 0 for any)
+     */
+    AtlonaOpusCommand(String text, Type type, int portNbr) {
+        this(text, type, portNbr, false);
+    }
+
+    /**
+     * Constructs the command from the given parameters
+     *
+     * @param text a non-null, non-empty command
+     * @param type a non-null expected response type
+     * @param portNbr the expected port number (or 0 for any)
+     * @param coalesce true if the command can be replaced by a newer command for the same type and port number
+     */
+    AtlonaOpusCommand(String text, Type type, int portNbr, boolean coalesce) {
+        if (text == null) {
+            throw new IllegalArgumentException("text cannot be null");
+        }
+        if (text.trim().length() == 0) {
+            throw new IllegalArgumentException("text cannot be empty");
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("type cannot be null");
+        }
+
+        this.text = text;
+        this.type = type;
+        this.portNbr = portNbr;
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * Returns the text of the command
+     *
+     * @return a non-null, non-empty command
+     */
+    String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the expected response type
+     *
+     * @return a non-null response type
+     */
+    Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the expected port number
+     *
+     * @return the expected port number (or 0 for any)
+     */
+    int getPortNbr() {
+        return portNbr;
+    }
+
+    /**
+     * Returns whether the command can be replaced by a newer command for the same type and port number
+     *
+     * @return true if the command coalesces
+     */
+    boolean isCoalescing() {
+        return coalesce;
+    }
+
+    /**
+     * Determines if this command should be replaced by the (newer) command
+     *
+     * @param newer a non-null command
+     * @return true if both commands coalesce and are for the same response type and port number
+     */
+    boolean isReplacedBy(AtlonaOpusCommand newer) {
+        return coalesce && newer.coalesce && type == newer.type && portNbr == newer.portNbr;
+    }
+
+    /**
+     * Returns the time (in milliseconds) before which the command will not be sent
+     *
+     * @return the time (in milliseconds) before which the command will not be sent
+     */
+    long getNotBefore() {
+        return notBefore;
+    }
+
+    /**
+     * Sets the time (in milliseconds) before which the command will not be sent
+     *
+     * @param notBefore the time (in milliseconds) before which the command will not be sent
+     */
+    void setNotBefore(long notBefore) {
+        this.notBefore = notBefore;
+    }
+
+    /**
+     * Returns the time (in milliseconds) the command will wait for its response
+     *
+     * @return the time (in milliseconds) the command will wait for its response or 0 to use the pipeline's timeout
+     */
+    long getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    /**
+     * Sets the time (in milliseconds) the command will wait for its response
+     *
+     * @param responseTimeout the time (in milliseconds) to wait for the response or 0 to use the pipeline's timeout
+     */
+    void setResponseTimeout(long responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    /**
+     * Returns the priority of the command
+     *
+     * @return the priority of the command or null if not set yet
+     */
+    Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the priority of the command
+     *
+     * @param priority the non-null priority of the command
+     */
+    void setPriority(Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Returns the future that completes when the command has been responded to
+     *
+     * @return a non-null future
+     */
+    CompletableFuture<Void> getFuture() {
+        return future;
+    }
+
+    /**
+     * Determines if the response type and port number is the response this command expects. The port numbers must be
+     * equal - a command without a port number (0) is only completed by a response without one (so the "Status" of
+     * all ports isn't completed by the single routing pair echoed for a routing command).
+     *
+     * @param responseType a non-null response type
+     * @param responsePortNbr the port number in the response (or 0 if none)
+     * @return true if the response completes this command
+     */
+    boolean matches(Type responseType, int responsePortNbr) {
+        return type == responseType && portNbr == responsePortNbr;
+    }
+
+    /**
+     * Sets the timeout scheduled when the command was sent
+     *
+     * @param timeout a non-null scheduled timeout
+     */
+    void setTimeout(ScheduledFuture<?> timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Completes the command (cancelling the timeout if scheduled)
+     */
+    void complete() {
+        cancelTimeout();
+        future.complete(null);
+    }
+
+    /**
+     * Fails the command with the given exception (cancelling the timeout if scheduled)
+     *
+     * @param e a non-null exception
+     */
+    void fail(Throwable e) {
+        cancelTimeout();
+        future.completeExceptionally(e);
+    }
+
+    /**
+     * Cancels the timeout if one was scheduled
+     */
+    private void cancelTimeout() {
+        final ScheduledFuture<?> localTimeout = timeout;
+        if (localTimeout != null) {
+            localTimeout.cancel(false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,735 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+import org.eclipse.smarthome.core.thing.ThingStatus;
+import org.eclipse.smarthome.core.thing.ThingStatusDetail;
+import org.openhab.binding.atlona.internal.AtlonaHandlerCallback;
+import org.openhab.binding.atlona.internal.net.SharedSelectorSession;
+import org.openhab.binding.atlona.internal.net.SocketSession;
+import org.openhab.binding.atlona.internal.opus.AtlonaOpusCommand.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The command pipeline for the OPUS session. Commands are queued and written to the {@link SocketSession} while there
+ * are less than the configured number of commands awaiting a response (the pipelining depth). Each response received is
+ * correlated back to the oldest in-flight command expecting it, which completes that command's future and frees up a
+ * slot for the next queued command. Commands that are not responded to within the command timeout are failed with a
+ * {@link TimeoutException}. A timed out command is remembered for another command timeout - a late response to it
+ * completes nothing but isn't mistaken for a broadcast notification either.
+ *
+ * Coalescing commands (see {@link AtlonaOpusCommand#isCoalescing()}) are held for the coalesce window before being
+ * sent. Any newer coalescing command for the same response type and port number submitted within that window replaces
+ * the held command (last write wins) - so dragging a volume slider results in one command per window rather than one
+ * per intermediate value. A held command also holds up the commands queued behind it in its lane, so the commands of
+ * a lane are always sent in the order they were submitted.
+ *
+ * All the commands that can be sent at once are encoded into a single write to the session (delimited by CR/LF just
+ * like individually sent commands are) - so a refresh cycle goes out in a few packets rather than one packet per
+ * command. Use {@link #batch(Supplier)} to submit a group of commands that should go out together. A
+ * {@link SharedSelectorSession} is handed the batch encoded into a reused direct buffer (no String or byte array is
+ * created per batch). A response only refills the pipeline once the in-flight commands have fallen to half of the
+ * background depth (or an interactive command is waiting behind only lower priority commands) - so a burst wider
+ * than the depth keeps going out in batches rather than one command per response.
+ *
+ * Pending commands are kept in a lane per {@link Priority} and the lanes are drained highest priority first - so a
+ * user's command never waits behind a refresh burst that hasn't been sent yet. One slot of the pipelining depth is
+ * reserved for interactive commands (refresh and background queries never fill the pipeline) so an interactive
+ * command goes out immediately even while a refresh burst is in flight. Unsent commands of a lane can be cancelled
+ * (see {@link #cancel(Priority)}). Each command is always written whole and in the order drained, so the switch never
+ * sees commands interleaved with one another.
+ *
+ * Every command (whatever its lane) takes a token from the {@link AtlonaOpusRateLimiter} when written - when the
+ * bucket is empty the commands stay queued until it has been refilled. The {@link ThrottleListener} is told when
+ * commands start and stop being held back by the limiter.
+ */
+class AtlonaOpusCommandPipeline {
+
+    private final Logger logger = LoggerFactory.getLogger(AtlonaOpusCommandPipeline.class);
+
+    /**
+     * Listens to the throttling of the pipeline by the {@link AtlonaOpusRateLimiter}
+     */
+    interface ThrottleListener {
+        /**
+         * Called when commands start being held back by the limiter and again when they no longer are
+         *
+         * @param throttled true if commands are being held back
+         * @param waitMillis the time (in milliseconds) commands were held back (0 when throttling starts)
+         */
+        void throttleChanged(boolean throttled, long waitMillis);
+    }
+
+    /**
+     * A command that timed out and the time (in milliseconds) it timed out at
+     */
+    private static class TimedOutCommand {
+        private final AtlonaOpusCommand command;
+        private final long timedOutAt;
+
+        private TimedOutCommand(AtlonaOpusCommand command, long timedOutAt) {
+            this.command = command;
+            this.timedOutAt = timedOutAt;
+        }
+    }
+
+    /**
+     * The delimiter between commands written together
+     */
+    private static final String COMMAND_DELIMITER = "\r\n";
+
+    /**
+     * The initial size of the direct buffer batches are encoded into (grown if a batch doesn't fit)
+     */
+    private static final int WRITE_BYTES_SIZE = 512;
+
+    /**
+     * The {@link SocketSession} commands are written to
+     */
+    private final SocketSession session;
+
+    /**
+     * The scheduler used to time out commands
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The {@link AtlonaHandlerCallback} to report communication failures to
+     */
+    private final AtlonaHandlerCallback callback;
+
+    /**
+     * The maximum number of commands awaiting a response
+     */
+    private final int depth;
+
+    /**
+     * The time (in milliseconds) a command will wait for its response
+     */
+    private final long timeoutMillis;
+
+    /**
+     * The time (in milliseconds) coalescing commands are held before being sent
+     */
+    private final long coalesceWindowMillis;
+
+    /**
+     * The {@link AtlonaOpusRateLimiter} limiting the rate commands are written. Guarded by this.
+     */
+    private final AtlonaOpusRateLimiter limiter;
+
+    /**
+     * The listener to throttling (null if none)
+     */
+    private volatile ThrottleListener throttleListener;
+
+    /**
+     * The time (in milliseconds) commands started being held back by the limiter (0 if not throttled). Guarded by this.
+     */
+    private long throttledSince;
+
+    /**
+     * Whether a drain has been scheduled for when the limiter will have a token. Guarded by this.
+     */
+    private boolean throttleDrainScheduled;
+
+    /**
+     * The number of pipeline slots reserved for {@link Priority#INTERACTIVE} commands
+     */
+    private static final int RESERVED_INTERACTIVE_SLOTS = 1;
+
+    /**
+     * The commands waiting to be sent - one lane per {@link Priority} (indexed by ordinal)
+     */
+    private final List<Deque<AtlonaOpusCommand>> lanes = new ArrayList<>();
+
+    /**
+     * The priority of commands submitted (without one) by the {@link #batch(Priority, Supplier)} running on the thread
+     */
+    private final ThreadLocal<Priority> batchPriority = new ThreadLocal<>();
+
+    /**
+     * The commands sent but not yet responded to (in the order they were sent)
+     */
+    private final List<AtlonaOpusCommand> inFlight = new ArrayList<>();
+
+    /**
+     * The commands that timed out recently (oldest first) - a late response to one of them is not a broadcast
+     */
+    private final Deque<TimedOutCommand> timedOut = new ArrayDeque<>();
+
+    /**
+     * The commands being written by the current drain (reused between drains)
+     */
+    private final List<AtlonaOpusCommand> writing = new ArrayList<>();
+
+    /**
+     * The buffer the commands being written are encoded into (reused between drains)
+     */
+    private final StringBuilder writeBuffer = new StringBuilder(256);
+
+    /**
+     * Held while a batch is written to the session. Taken while holding the pipeline's lock (so batches are written in
+     * the order drained) but the write itself happens outside the pipeline's lock - the session's own lock is never
+     * waited on while holding the pipeline's lock.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * The direct buffer a batch is encoded into for a {@link SharedSelectorSession} (reused between batches). Guarded
+     * by {@link #writeLock}.
+     */
+    private ByteBuffer writeBytes = ByteBuffer.allocateDirect(WRITE_BYTES_SIZE);
+
+    /**
+     * The number of {@link #batch(Supplier)} calls in progress - commands are not written while greater than 0
+     */
+    private int batching;
+
+    /**
+     * The time (in milliseconds, 0 if never) commands were last written to the session
+     */
+    private volatile long lastWrite;
+
+    /**
+     * Constructs the pipeline from the given parameters
+     *
+     * @param session a non-null {@link SocketSession}
+     * @param scheduler a non-null scheduler
+     * @param callback a non-null {@link AtlonaHandlerCallback}
+     * @param depth a greater than 0 pipelining depth
+     * @param timeoutMillis a greater than 0 command timeout (in milliseconds)
+     * @param coalesceWindowMillis a greater than or equal to 0 coalesce window (in milliseconds)
+     * @param limiter a non-null {@link AtlonaOpusRateLimiter}
+     */
+    AtlonaOpusCommandPipeline(SocketSession session, ScheduledExecutorService scheduler,
+            AtlonaHandlerCallback callback, int depth, long timeoutMillis, long coalesceWindowMillis,
+            AtlonaOpusRateLimiter limiter) {
+        if (session == null) {
+            throw new IllegalArgumentException("session cannot be null");
+        }
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler cannot be null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback cannot be null");
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be greater than 0");
+        }
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("timeoutMillis must be greater than 0");
+        }
+        if (coalesceWindowMillis < 0) {
+            throw new IllegalArgumentException("coalesceWindowMillis must be greater than or equal to 0");
+        }
+        if (limiter == null) {
+            throw new IllegalArgumentException("limiter cannot be null");
+        }
+
+        this.session = session;
+        this.scheduler = scheduler;
+        this.callback = callback;
+        this.depth = depth;
+        this.timeoutMillis = timeoutMillis;
+        this.coalesceWindowMillis = coalesceWindowMillis;
+        this.limiter = limiter;
+
+        for (int idx = Priority.values().length; idx > 0; idx--) {
+            lanes.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Queues the command to be sent in the lane of its priority. A command without a priority is given the priority of
+     * the {@link #batch(Priority, Supplier)} it was submitted within (or {@link Priority#INTERACTIVE} if none). If the
+     * command is coalescing and an unsent command for the same response type and port number is queued in the same
+     * lane, the queued command is replaced (keeping its place in the queue and its coalesce window) and its future will
+     * complete with the replacement's.
+     *
+     * @param command a non-null command
+     * @return the non-null future of the command that completes when the command is responded to
+     */
+    CompletableFuture<Void> submit(AtlonaOpusCommand command) {
+        if (command == null) {
+            throw new IllegalArgumentException("command cannot be null");
+        }
+
+        if (command.getPriority() == null) {
+            final Priority priority = batchPriority.get();
+            command.setPriority(priority == null ? Priority.INTERACTIVE : priority);
+        }
+
+        AtlonaOpusCommand replaced = null;
+        synchronized (this) {
+            final Deque<AtlonaOpusCommand> pending = lanes.get(command.getPriority().ordinal());
+            if (command.isCoalescing() && coalesceWindowMillis > 0) {
+                replaced = replacePending(pending, command);
+                if (replaced == null) {
+                    command.setNotBefore(System.currentTimeMillis() + coalesceWindowMillis);
+                    pending.add(command);
+                    // +1 since the scheduler's clock isn't the wall clock the window is measured in
+                    scheduler.schedule(this::drain, coalesceWindowMillis + 1, TimeUnit.MILLISECONDS);
+                }
+            } else {
+                pending.add(command);
+            }
+        }
+
+        if (replaced != null) {
+            final AtlonaOpusCommand old = replaced;
+            logger.trace("Coalesced '{}' into '{}'", old, command);
+            command.getFuture().whenComplete((r, e) -> {
+                if (e == null) {
+                    old.complete();
+                } else {
+                    old.fail(e);
+                }
+            });
+            return command.getFuture();
+        }
+
+        drain();
+        return command.getFuture();
+    }
+
+    /**
+     * Submits a group of commands that should be written together. Commands submitted by the supplier are queued but
+     * not written until the supplier returns - at which point as many as the pipelining depth allows are written in a
+     * single write.
+     *
+     * @param commands a non-null supplier that submits the commands
+     * @return the value returned by the supplier
+     */
+    <T> T batch(Supplier<T> commands) {
+        if (commands == null) {
+            throw new IllegalArgumentException("commands cannot be null");
+        }
+        synchronized (this) {
+            batching++;
+        }
+        try {
+            return commands.get();
+        } finally {
+            synchronized (this) {
+                batching--;
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Submits a group of commands that should be written together (see {@link #batch(Supplier)}) at the given
+     * priority. Commands submitted by the supplier (on the calling thread) without a priority are given this priority.
+     *
+     * @param priority a non-null priority
+     * @param commands a non-null supplier that submits the commands
+     * @return the value returned by the supplier
+     */
+    <T> T batch(Priority priority, Supplier<T> commands) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority cannot be null");
+        }
+        final Priority outer = batchPriority.get();
+        batchPriority.set(priority);
+        try {
+            return batch(commands);
+        } finally {
+            if (outer == null) {
+                batchPriority.remove();
+            } else {
+                batchPriority.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Replaces the pending command that the (newer) command coalesces with (if any)
+     *
+     * @param pending the non-null lane of the command
+     * @param command a non-null coalescing command
+     * @return the replaced command or null if none was replaced
+     */
+    private AtlonaOpusCommand replacePending(Deque<AtlonaOpusCommand> pending, AtlonaOpusCommand command) {
+        // ArrayDeque has no in-place set so rotate through the queue to keep the order
+        AtlonaOpusCommand replaced = null;
+        for (int idx = pending.size(); idx > 0; idx--) {
+            final AtlonaOpusCommand queued = pending.poll();
+            if (replaced == null && queued.isReplacedBy(command)) {
+                replaced = queued;
+                command.setNotBefore(queued.getNotBefore());
+                pending.add(command);
+            } else {
+                pending.add(queued);
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * Sets the listener to throttling by the {@link AtlonaOpusRateLimiter}
+     *
+     * @param throttleListener a possibly null listener (null to stop listening)
+     */
+    void setThrottleListener(ThrottleListener throttleListener) {
+        this.throttleListener = throttleListener;
+    }
+
+    /**
+     * Returns the time commands were last written to the session
+     *
+     * @return the time (in milliseconds) commands were last written or 0 if never
+     */
+    long getLastWrite() {
+        return lastWrite;
+    }
+
+    /**
+     * Called when a response has been received. Completes the oldest in-flight command expecting the response (if any)
+     * and refills the pipeline once the in-flight commands have fallen to half of the background depth (or right away
+     * if an interactive command is waiting behind only lower priority commands) - so the freed slots are written as one
+     * batch rather than one command per response.
+     *
+     * @param type a non-null response type
+     * @param portNbr the port number of the response (or 0 if none)
+     * @return true if a command was completed (or the response is a late response to a command that timed out), false
+     *         if the response was unsolicited (a broadcast notification)
+     */
+    boolean responseReceived(AtlonaOpusCommand.Type type, int portNbr) {
+        AtlonaOpusCommand completed = null;
+        final boolean refill;
+        synchronized (this) {
+            for (int idx = 0; idx < inFlight.size(); idx++) {
+                if (inFlight.get(idx).matches(type, portNbr)) {
+                    completed = inFlight.remove(idx);
+                    break;
+                }
+            }
+
+            if (completed == null) {
+                return removeTimedOut(type, portNbr);
+            }
+
+            refill = inFlight.size() <= Math.max(1, depth - RESERVED_INTERACTIVE_SLOTS) / 2
+                    || (!lanes.get(Priority.INTERACTIVE.ordinal()).isEmpty() && !isInFlight(Priority.INTERACTIVE));
+        }
+
+        completed.complete();
+        if (refill) {
+            drain();
+        }
+        return true;
+    }
+
+    /**
+     * Determines if a command of the priority is in-flight. Must be called holding the lock.
+     *
+     * @param priority a non-null priority
+     * @return true if a command of the priority is in-flight, false otherwise
+     */
+    private boolean isInFlight(Priority priority) {
+        for (AtlonaOpusCommand command : inFlight) {
+            if (command.getPriority() == priority) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the oldest recently timed out command expecting the response (forgetting those that timed out too long
+     * ago). Must be called holding the lock.
+     *
+     * @param type a non-null response type
+     * @param portNbr the port number of the response (or 0 if none)
+     * @return true if the response is a late response to a timed out command, false otherwise
+     */
+    private boolean removeTimedOut(AtlonaOpusCommand.Type type, int portNbr) {
+        final long expired = System.currentTimeMillis() - timeoutMillis;
+        while (!timedOut.isEmpty() && timedOut.peekFirst().timedOutAt < expired) {
+            timedOut.removeFirst();
+        }
+
+        for (Iterator<TimedOutCommand> iter = timedOut.iterator(); iter.hasNext();) {
+            if (iter.next().command.matches(type, portNbr)) {
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called when a "Command FAILED: (command)" response has been received. Fails the in-flight command whose text is
+     * within the parenthesis (if any)
+     *
+     * @param resp the non-null failure response
+     */
+    void commandFailed(CharSequence resp) {
+        final int start = AtlonaOpusUtilities.indexOf(resp, "(", 0) + 1;
+        final int end = resp.length() - 1;
+        if (start <= 0 || end < start || resp.charAt(end) != ')') {
+            return;
+        }
+
+        AtlonaOpusCommand failed = null;
+        synchronized (this) {
+            for (int idx = 0; idx < inFlight.size(); idx++) {
+                final String text = inFlight.get(idx).getText();
+                if (text.length() == end - start && AtlonaOpusUtilities.regionMatches(resp, start, text)) {
+                    failed = inFlight.remove(idx);
+                    break;
+                }
+            }
+        }
+
+        if (failed != null) {
+            failed.fail(new IOException(resp.toString()));
+            drain();
+        }
+    }
+
+    /**
+     * Cancels all pending and in-flight commands. Should be called whenever the session is (re)connected since
+     * responses to commands from a prior session will never arrive.
+     */
+    void clear() {
+        final List<AtlonaOpusCommand> cancelled;
+        synchronized (this) {
+            cancelled = new ArrayList<>(inFlight);
+            inFlight.clear();
+            timedOut.clear();
+            removePending(cancelled);
+        }
+
+        for (AtlonaOpusCommand command : cancelled) {
+            command.fail(new CancellationException("Command '" + command + "' cancelled"));
+        }
+    }
+
+    /**
+     * Cancels the commands of the lane that haven't been sent yet (in-flight commands are already on the wire and will
+     * still be responded to). Used to drop a lower priority burst that has been superseded.
+     *
+     * @param priority a non-null priority of the lane to cancel
+     * @return the number of commands cancelled
+     */
+    int cancel(Priority priority) {
+        if (priority == null) {
+            throw new IllegalArgumentException("priority cannot be null");
+        }
+
+        final List<AtlonaOpusCommand> cancelled;
+        synchronized (this) {
+            final Deque<AtlonaOpusCommand> pending = lanes.get(priority.ordinal());
+            cancelled = new ArrayList<>(pending);
+            pending.clear();
+        }
+
+        for (AtlonaOpusCommand command : cancelled) {
+            command.fail(new CancellationException("Command '" + command + "' cancelled"));
+        }
+        return cancelled.size();
+    }
+
+    /**
+     * Removes the pending commands of every lane (highest priority first). Must be called holding the lock.
+     *
+     * @param removed a non-null list the removed commands are added to
+     */
+    private void removePending(List<AtlonaOpusCommand> removed) {
+        for (Deque<AtlonaOpusCommand> pending : lanes) {
+            removed.addAll(pending);
+            pending.clear();
+        }
+    }
+
+    /**
+     * Writes pending commands to the session while the pipelining depth allows - highest priority lane first with the
+     * lower lanes leaving the reserved interactive slots free. All the commands that can be written are encoded (CR/LF
+     * delimited) into a single write - for a {@link SharedSelectorSession} into the reused direct buffer (encoded while
+     * still holding the lock). A coalescing command still within its coalesce window holds up the rest of its
+     * lane (so the commands of a lane are always written in the order submitted) - a drain is scheduled for when its
+     * window closes. Draining stops when the {@link AtlonaOpusRateLimiter} has no token left (a drain is scheduled for
+     * when it will have one). The commands are moved in-flight under the lock but written after it has been released.
+     * If an IOException occurs, all commands are failed with it and the callback is notified that the switch is
+     * offline.
+     */
+    private void drain() {
+        IOException failure = null;
+        Boolean throttleChanged = null;
+        long throttleWait = 0;
+        boolean write = false;
+        String batch = null;
+        final long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (batching > 0) {
+                return;
+            }
+
+            final int lowerDepth = Math.max(1, depth - RESERVED_INTERACTIVE_SLOTS);
+            boolean throttled = false;
+            writing.clear();
+            writeBuffer.setLength(0);
+            drain: for (Priority priority : Priority.values()) {
+                final int laneDepth = priority == Priority.INTERACTIVE ? depth : lowerDepth;
+                final Iterator<AtlonaOpusCommand> iter = lanes.get(priority.ordinal()).iterator();
+                while (inFlight.size() + writing.size() < laneDepth && iter.hasNext()) {
+                    final AtlonaOpusCommand command = iter.next();
+                    if (command.getNotBefore() > now) {
+                        continue drain;
+                    }
+                    if (!limiter.tryAcquire(now)) {
+                        throttled = true;
+                        break drain;
+                    }
+                    iter.remove();
+                    if (writeBuffer.length() > 0) {
+                        writeBuffer.append(COMMAND_DELIMITER);
+                    }
+                    writeBuffer.append(command.getText());
+                    writing.add(command);
+                }
+            }
+
+            if (throttled) {
+                if (!throttleDrainScheduled) {
+                    throttleDrainScheduled = true;
+                    scheduler.schedule(() -> {
+                        synchronized (this) {
+                            throttleDrainScheduled = false;
+                        }
+                        drain();
+                    }, Math.max(1, limiter.nextTokenIn(now)), TimeUnit.MILLISECONDS);
+                }
+                if (throttledSince == 0) {
+                    throttledSince = now;
+                    throttleChanged = Boolean.TRUE;
+                }
+            } else if (throttledSince != 0) {
+                throttleWait = now - throttledSince;
+                throttledSince = 0;
+                throttleChanged = Boolean.FALSE;
+            }
+
+            if (!writing.isEmpty()) {
+                for (AtlonaOpusCommand command : writing) {
+                    final long commandTimeout = command.getResponseTimeout() > 0 ? command.getResponseTimeout()
+                            : timeoutMillis;
+                    command.setTimeout(
+                            scheduler.schedule(() -> timedOut(command), commandTimeout, TimeUnit.MILLISECONDS));
+                    inFlight.add(command);
+                }
+                writing.clear();
+                writeLock.lock();
+                if (session instanceof SharedSelectorSession) {
+                    encode();
+                } else {
+                    batch = writeBuffer.toString();
+                }
+                write = true;
+            }
+        }
+
+        if (write) {
+            try {
+                if (batch == null) {
+                    ((SharedSelectorSession) session).sendCommands(writeBytes);
+                } else {
+                    // the session delimits the last command
+                    session.sendCommand(batch);
+                }
+                lastWrite = now;
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        if (throttleChanged != null) {
+            if (throttleChanged) {
+                logger.debug("Throttling commands to the switch");
+            } else {
+                logger.debug("Stopped throttling commands to the switch after {}ms", throttleWait);
+            }
+            final ThrottleListener localListener = throttleListener;
+            if (localListener != null) {
+                localListener.throttleChanged(throttleChanged, throttleWait);
+            }
+        }
+
+        if (failure != null) {
+            final List<AtlonaOpusCommand> failed;
+            synchronized (this) {
+                failed = new ArrayList<>(inFlight);
+                inFlight.clear();
+                removePending(failed);
+            }
+            for (AtlonaOpusCommand command : failed) {
+                command.fail(failure);
+            }
+            callback.statusChanged(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                    "Exception occurred sending to Atlona: " + failure);
+        }
+    }
+
+    /**
+     * Encodes the batch in {@link #writeBuffer} (plus the delimiter the session would add to the last command) into
+     * {@link #writeBytes} as ISO-8859-1, growing the buffer if the batch doesn't fit. The buffer is left flipped ready
+     * to be written. Must be called holding the lock and {@link #writeLock}.
+     */
+    private void encode() {
+        final int length = writeBuffer.length() + COMMAND_DELIMITER.length();
+        if (writeBytes.capacity() < length) {
+            writeBytes = ByteBuffer.allocateDirect(Math.max(length, writeBytes.capacity() * 2));
+        }
+        writeBytes.clear();
+        for (int i = 0; i < writeBuffer.length(); i++) {
+            writeBytes.put((byte) writeBuffer.charAt(i));
+        }
+        for (int i = 0; i < COMMAND_DELIMITER.length(); i++) {
+            writeBytes.put((byte) COMMAND_DELIMITER.charAt(i));
+        }
+        writeBytes.flip();
+    }
+
+    /**
+     * Called when the command's timeout has elapsed. Fails the command if it is still in-flight.
+     *
+     * @param command a non-null command
+     */
+    private void timedOut(AtlonaOpusCommand command) {
+        final boolean removed;
+        synchronized (this) {
+            removed = inFlight.remove(command);
+            if (removed) {
+                if (timedOut.size() >= depth) {
+                    timedOut.removeFirst();
+                }
+                timedOut.addLast(new TimedOutCommand(command, System.currentTimeMillis()));
+            }
+        }
+
+        if (removed) {
+            final long commandTimeout = command.getResponseTimeout() > 0 ? command.getResponseTimeout() : timeoutMillis;
+            logger.debug("No response to '{}' within {}ms", command, commandTimeout);
+            command.fail(new TimeoutException("No response to '" + command + "' within " + commandTimeout + "ms"));
+            drain();
+        }
+    }
+}
@@ -33,15 +33,103 @@ public class AtlonaOpusConfig {
     private int polling;
 
     /**
-     * Ping time (in seconds) to keep the connection alive. Should be less than the IP Timeout on the switch.
+     * Ping time (in seconds) to keep the connection alive. Should be less than the IP Timeout on the switch. The switch
+     * is only pinged once the connection has been idle (no response read or no command written) for this time.
      */
     private int ping;
 
+    /**
+     * Time (in seconds) the switch has to respond to a ping before the connection is considered dead
+     */
+    private int pingTimeout = 3;
+
     /**
      * Polling time (in seconds) to attempt a reconnect if the socket session has failed
      */
     private int retryPolling;
 
+    /**
+     * Longest time (in seconds) between reconnect attempts - attempts back off from the retry polling to this
+     */
+    private int maxRetryPolling = 300;
+
+    /**
+     * Shortest polling time (in seconds) - used for a short period after commands and reconnects
+     */
+    private int minPolling = 2;
+
+    /**
+     * Longest polling time (in seconds) - the polling time backs off to this while broadcasts keep the state fresh
+     */
+    private int maxPolling = 600;
+
+    /**
+     * Time (in seconds) the shortest polling time is used for after a command or reconnect
+     */
+    private int fastPolling = 30;
+
+    /**
+     * Maximum number of commands sent to the switch that may be awaiting a response
+     */
+    private int pipelineDepth = 4;
+
+    /**
+     * Time (in seconds) a command will wait for its response before being considered failed
+     */
+    private int commandTimeout = 5;
+
+    /**
+     * Whether broadcast notifications are treated as the source of truth (only re-querying state that hasn't been
+     * confirmed within {@link #stateTtl}) rather than polling all state
+     */
+    private boolean pushMode;
+
+    /**
+     * Time (in seconds) state confirmed by the switch is considered fresh when in push mode
+     */
+    private int stateTtl = 300;
+
+    /**
+     * Time (in milliseconds) volume and routing commands are held so that newer values for the same port replace them
+     */
+    private int coalesceWindow = 100;
+
+    /**
+     * Time (in seconds) the whole login sequence must complete within
+     */
+    private int loginTimeout = 30;
+
+    /**
+     * Maximum number of state updates queued for dispatch to openHAB
+     */
+    private int dispatchQueueSize = 256;
+
+    /**
+     * Which state updates are given up - "coalesce" (a queued update for the same channel is always replaced, the
+     * oldest is dropped when the queue is full) or "dropOldest" (the oldest is dropped when the queue is full)
+     */
+    private String dispatchOverflow = "coalesce";
+
+    /**
+     * Time (in milliseconds) channel refresh requests are collected for before being merged into queries
+     */
+    private int refreshWindow = 250;
+
+    /**
+     * Maximum number of commands per second written to the switch (0 for unlimited)
+     */
+    private int commandRate = 20;
+
+    /**
+     * Maximum number of commands written back to back before the command rate applies
+     */
+    private int commandBurst = 20;
+
+    /**
+     * Time (in milliseconds) between the steps of a volume ramp
+     */
+    private int rampInterval = 100;
+
     /**
      * Returns the IP address or host name of the switch
      *
@@ -149,4 +237,310 @@ public class AtlonaOpusConfig {
     public void setPing(int ping) {
         this.ping = ping;
     }
+
+    /**
+     * Gets the maximum number of commands awaiting a response
+     *
+     * @return the maximum number of commands awaiting a response
+     */
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * Sets the maximum number of commands awaiting a response
+     *
+     * @param pipelineDepth the maximum number of commands awaiting a response
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    /**
+     * Gets the time (in seconds) a command will wait for its response
+     *
+     * @return the time (in seconds) a command will wait for its response
+     */
+    public int getCommandTimeout() {
+        return commandTimeout;
+    }
+
+    /**
+     * Sets the time (in seconds) a command will wait for its response
+     *
+     * @param commandTimeout the time (in seconds) a command will wait for its response
+     */
+    public void setCommandTimeout(int commandTimeout) {
+        this.commandTimeout = commandTimeout;
+    }
+
+    /**
+     * Gets whether push mode is enabled
+     *
+     * @return true if push mode is enabled
+     */
+    public boolean isPushMode() {
+        return pushMode;
+    }
+
+    /**
+     * Sets whether push mode is enabled
+     *
+     * @param pushMode true to enable push mode
+     */
+    public void setPushMode(boolean pushMode) {
+        this.pushMode = pushMode;
+    }
+
+    /**
+     * Gets the time (in seconds) confirmed state is considered fresh
+     *
+     * @return the time (in seconds) confirmed state is considered fresh
+     */
+    public int getStateTtl() {
+        return stateTtl;
+    }
+
+    /**
+     * Sets the time (in seconds) confirmed state is considered fresh
+     *
+     * @param stateTtl the time (in seconds) confirmed state is considered fresh
+     */
+    public void setStateTtl(int stateTtl) {
+        this.stateTtl = stateTtl;
+    }
+
+    /**
+     * Gets the time (in milliseconds) volume and routing commands are held to be coalesced
+     *
+     * @return the time (in milliseconds) volume and routing commands are held to be coalesced
+     */
+    public int getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * Sets the time (in milliseconds) volume and routing commands are held to be coalesced
+     *
+     * @param coalesceWindow the time (in milliseconds) volume and routing commands are held to be coalesced
+     */
+    public void setCoalesceWindow(int coalesceWindow) {
+        this.coalesceWindow = coalesceWindow;
+    }
+
+    /**
+     * Gets the time (in seconds) the whole login sequence must complete within
+     *
+     * @return the time (in seconds) the whole login sequence must complete within
+     */
+    public int getLoginTimeout() {
+        return loginTimeout;
+    }
+
+    /**
+     * Sets the time (in seconds) the whole login sequence must complete within
+     *
+     * @param loginTimeout the time (in seconds) the whole login sequence must complete within
+     */
+    public void setLoginTimeout(int loginTimeout) {
+        this.loginTimeout = loginTimeout;
+    }
+
+    /**
+     * Gets the shortest polling time (in seconds)
+     *
+     * @return the shortest polling time (in seconds)
+     */
+    public int getMinPolling() {
+        return minPolling;
+    }
+
+    /**
+     * Sets the shortest polling time (in seconds)
+     *
+     * @param minPolling the shortest polling time (in seconds)
+     */
+    public void setMinPolling(int minPolling) {
+        this.minPolling = minPolling;
+    }
+
+    /**
+     * Gets the longest polling time (in seconds)
+     *
+     * @return the longest polling time (in seconds)
+     */
+    public int getMaxPolling() {
+        return maxPolling;
+    }
+
+    /**
+     * Sets the longest polling time (in seconds)
+     *
+     * @param maxPolling the longest polling time (in seconds)
+     */
+    public void setMaxPolling(int maxPolling) {
+        this.maxPolling = maxPolling;
+    }
+
+    /**
+     * Gets the time (in seconds) the shortest polling time is used for after a command or reconnect
+     *
+     * @return the time (in seconds) the shortest polling time is used for after a command or reconnect
+     */
+    public int getFastPolling() {
+        return fastPolling;
+    }
+
+    /**
+     * Sets the time (in seconds) the shortest polling time is used for after a command or reconnect
+     *
+     * @param fastPolling the time (in seconds) the shortest polling time is used for after a command or reconnect
+     */
+    public void setFastPolling(int fastPolling) {
+        this.fastPolling = fastPolling;
+    }
+
+    /**
+     * Gets the time (in seconds) the switch has to respond to a ping
+     *
+     * @return the time (in seconds) the switch has to respond to a ping
+     */
+    public int getPingTimeout() {
+        return pingTimeout;
+    }
+
+    /**
+     * Sets the time (in seconds) the switch has to respond to a ping
+     *
+     * @param pingTimeout the time (in seconds) the switch has to respond to a ping
+     */
+    public void setPingTimeout(int pingTimeout) {
+        this.pingTimeout = pingTimeout;
+    }
+
+    /**
+     * Gets the longest time (in seconds) between reconnect attempts
+     *
+     * @return the longest time (in seconds) between reconnect attempts
+     */
+    public int getMaxRetryPolling() {
+        return maxRetryPolling;
+    }
+
+    /**
+     * Sets the longest time (in seconds) between reconnect attempts
+     *
+     * @param maxRetryPolling the longest time (in seconds) between reconnect attempts
+     */
+    public void setMaxRetryPolling(int maxRetryPolling) {
+        this.maxRetryPolling = maxRetryPolling;
+    }
+
+    /**
+     * Gets the maximum number of state updates queued for dispatch to openHAB
+     *
+     * @return the maximum number of state updates queued for dispatch to openHAB
+     */
+    public int getDispatchQueueSize() {
+        return dispatchQueueSize;
+    }
+
+    /**
+     * Sets the maximum number of state updates queued for dispatch to openHAB
+     *
+     * @param dispatchQueueSize the maximum number of state updates queued for dispatch to openHAB
+     */
+    public void setDispatchQueueSize(int dispatchQueueSize) {
+        this.dispatchQueueSize = dispatchQueueSize;
+    }
+
+    /**
+     * Gets the dispatch queue overflow policy ("coalesce" or "dropOldest")
+     *
+     * @return the dispatch queue overflow policy
+     */
+    public String getDispatchOverflow() {
+        return dispatchOverflow;
+    }
+
+    /**
+     * Sets the dispatch queue overflow policy ("coalesce" or "dropOldest")
+     *
+     * @param dispatchOverflow the dispatch queue overflow policy
+     */
+    public void setDispatchOverflow(String dispatchOverflow) {
+        this.dispatchOverflow = dispatchOverflow;
+    }
+
+    /**
+     * Gets the time (in milliseconds) channel refresh requests are collected for
+     *
+     * @return the time (in milliseconds) channel refresh requests are collected for
+     */
+    public int getRefreshWindow() {
+        return refreshWindow;
+    }
+
+    /**
+     * Sets the time (in milliseconds) channel refresh requests are collected for
+     *
+     * @param refreshWindow the time (in milliseconds) channel refresh requests are collected for
+     */
+    public void setRefreshWindow(int refreshWindow) {
+        this.refreshWindow = refreshWindow;
+    }
+
+    /**
+     * Gets the maximum number of commands per second written to the switch
+     *
+     * @return the maximum number of commands per second (0 for unlimited)
+     */
+    public int getCommandRate() {
+        return commandRate;
+    }
+
+    /**
+     * Sets the maximum number of commands per second written to the switch
+     *
+     * @param commandRate the maximum number of commands per second (0 for unlimited)
+     */
+    public void setCommandRate(int commandRate) {
+        this.commandRate = commandRate;
+    }
+
+    /**
+     * Gets the maximum number of commands written back to back
+     *
+     * @return the maximum number of commands written back to back
+     */
+    public int getCommandBurst() {
+        return commandBurst;
+    }
+
+    /**
+     * Sets the maximum number of commands written back to back
+     *
+     * @param commandBurst the maximum number of commands written back to back
+     */
+    public void setCommandBurst(int commandBurst) {
+        this.commandBurst = commandBurst;
+    }
+
+    /**
+     * Gets the time (in milliseconds) between the steps of a volume ramp
+     *
+     * @return the time (in milliseconds) between the steps of a volume ramp
+     */
+    public int getRampInterval() {
+        return rampInterval;
+    }
+
+    /**
+     * Sets the time (in milliseconds) between the steps of a volume ramp
+     *
+     * @param rampInterval the time (in milliseconds) between the steps of a volume ramp
+     */
+    public void setRampInterval(int rampInterval) {
+        this.rampInterval = rampInterval;
+    }
 }
@@ -4,6 +4,17 @@ public class AtlonaOpusConstants {
     // Properties
     static final String PROPERTY_VERSION = "version";
     static final String PROPERTY_TYPE = "type";
+    static final String PROPERTY_POLLING_INTERVAL = "pollingInterval";
+    static final String PROPERTY_POLLING_REASON = "pollingReason";
+    static final String PROPERTY_RECONNECT_ATTEMPTS = "reconnectAttempts";
+    static final String PROPERTY_RECONNECT_BACKOFF = "reconnectBackoff";
+    static final String PROPERTY_RECONNECT_DURATION = "lastReconnectDuration";
+    static final String PROPERTY_RECONNECTS = "reconnects";
+    static final String PROPERTY_DISPATCH_QUEUE_DEPTH = "dispatchQueueDepth";
+    static final String PROPERTY_DISPATCH_LATENCY = "dispatchLatency";
+    static final String PROPERTY_DISPATCH_LATENCY_MAX = "dispatchLatencyMax";
+    static final String PROPERTY_DISPATCH_COALESCED = "dispatchCoalesced";
+    static final String PROPERTY_DISPATCH_DROPPED = "dispatchDropped";
 
     static final String GROUP_PRIMARY = "primary";
     static final String GROUP_PORT = "port";
@@ -16,6 +27,8 @@ public class AtlonaOpusConstants {
     static final String CHANNEL_IRENABLE = "irenable";
     static final String CHANNEL_PRESETCMDS = "presetcmd";
     static final String CHANNEL_MATRIXCMDS = "matrixcmd";
+    static final String CHANNEL_THROTTLED = "throttled";
+    static final String CHANNEL_THROTTLEWAIT = "throttlewait";
 
     static final String CHANNEL_PORTPOWER = "portpower";
     static final String CHANNEL_PORTOUTPUT = "portoutput";
@@ -39,4 +52,6 @@ public class AtlonaOpusConstants {
     static final String CMD_MATRIXRESET = "resetmatrix";
     static final String CMD_MATRIXRESETPORTS = "resetports";
     static final String CMD_MATRIXPORTALL = "allports";
+    static final String CMD_MATRIXROUTE = "route";
+    static final String CMD_MATRIXRAMP = "ramp";
 }
@@ -1,10 +1,12 @@
 package org.openhab.binding.atlona.internal.opus;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
 
 import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.library.types.OnOffType;
@@ -19,8 +21,9 @@ import org.eclipse.smarthome.core.types.State;
 import org.openhab.binding.atlona.internal.AtlonaHandlerCallback;
 import org.openhab.binding.atlona.internal.StatefulHandlerCallback;
 import org.openhab.binding.atlona.internal.handler.AtlonaHandler;
-import org.openhab.binding.atlona.internal.net.SocketChannelSession;
+import org.openhab.binding.atlona.internal.net.SharedSelectorSession;
 import org.openhab.binding.atlona.internal.net.SocketSession;
+import org.openhab.binding.atlona.internal.opus.AtlonaOpusChannelIndex.Channel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,6 +31,16 @@ public class AtlonaOpusHandler extends AtlonaHandler<AtlonaOpusCapabilities> {
 
     private final Logger logger = LoggerFactory.getLogger(AtlonaOpusHandler.class);
 
+    // The settings of a scene (see parseScene) - each is written like the switch command that changes it
+    private static final String SCENE_PORT_PREFIX = "x";
+    private static final String SCENE_ROUTE = "AVx";
+    private static final String SCENE_PORT_POWER = "$ ";
+    private static final String SCENE_VOLUME_PREFIX = "VOUT";
+    private static final String SCENE_VOLUME_MUTE_PREFIX = "VOUTMute";
+    private static final String SCENE_SEPARATOR = " ";
+    private static final String SCENE_ON = "on";
+    private static final String SCENE_OFF = "off";
+
     /**
      * The {@link AtlonaOpusPortocolHandler} protocol handler
      */
@@ -39,43 +52,79 @@ public class AtlonaOpusHandler extends AtlonaHandler<AtlonaOpusCapabilities> {
     private SocketSession session;
 
     /**
-     * The polling job to poll the actual state from the {@link #session}
+     * The adaptive polling of the actual state from the {@link #session}
      */
-    private ScheduledFuture<?> polling;
+    private volatile AtlonaOpusPollingScheduler polling;
 
     /**
      * The retry connection event
      */
-    private ScheduledFuture<?> retryConnection;
+    private volatile ScheduledFuture<?> retryConnection;
 
     /**
-     * The ping event
+     * The {@link AtlonaOpusReconnectPolicy} deciding when to retry the connection
      */
-    private ScheduledFuture<?> ping;
+    private AtlonaOpusReconnectPolicy reconnectPolicy;
 
-    // List of all the groups patterns we recognize
-    private static final Pattern GROUP_PRIMARY_PATTERN = Pattern.compile("^" + AtlonaOpusConstants.GROUP_PRIMARY + "$");
-    private static final Pattern GROUP_PORT_PATTERN = Pattern
-            .compile("^" + AtlonaOpusConstants.GROUP_PORT + "(\\d{1,2})$");
-    private static final Pattern GROUP_MIRROR_PATTERN = Pattern
-            .compile("^" + AtlonaOpusConstants.GROUP_MIRROR + "(\\d{1,2})$");
-    private static final Pattern GROUP_VOLUME_PATTERN = Pattern
-            .compile("^" + AtlonaOpusConstants.GROUP_VOLUME + "(\\d{1,2})$");
+    /**
+     * The idle-aware keepalive (pings the switch only when the connection is idle)
+     */
+    private volatile AtlonaOpusKeepAlive ping;
 
-    // List of preset commands we recognize
-    private static final Pattern CMD_PRESETSAVE = Pattern
-            .compile("^" + AtlonaOpusConstants.CMD_PRESETSAVE + "(\\d{1,2})$");
-    private static final Pattern CMD_PRESETRECALL = Pattern
-            .compile("^" + AtlonaOpusConstants.CMD_PRESETRECALL + "(\\d{1,2})$");
-    private static final Pattern CMD_PRESETCLEAR = Pattern
-            .compile("^" + AtlonaOpusConstants.CMD_PRESETCLEAR + "(\\d{1,2})$");
+    /**
+     * The {@link AtlonaOpusStateDispatcher} delivering state updates off the session's I/O thread
+     */
+    private AtlonaOpusStateDispatcher dispatcher;
 
-    // List of matrix commands we recognize
-    private static final Pattern CMD_MATRIXRESET = Pattern.compile("^" + AtlonaOpusConstants.CMD_MATRIXRESET + "$");
-    private static final Pattern CMD_MATRIXRESETPORTS = Pattern
-            .compile("^" + AtlonaOpusConstants.CMD_MATRIXRESETPORTS + "$");
-    private static final Pattern CMD_MATRIXPORTALL = Pattern
-            .compile("^" + AtlonaOpusConstants.CMD_MATRIXPORTALL + "(\\d{1,2})$");
+    /**
+     * The {@link AtlonaOpusRefreshCoalescer} merging channel refreshes. Will be null if not logged in.
+     */
+    private volatile AtlonaOpusRefreshCoalescer refreshes;
+
+    /**
+     * The {@link CommandTable} of the current {@link AtlonaOpusChannelIndex} (rebuilt if the index changes)
+     */
+    private volatile CommandTable commandTable;
+
+    /**
+     * An action bound to a channel (with its port number already captured) that handles the commands sent to it
+     */
+    private interface ChannelAction {
+        /**
+         * Handles the command sent to the channel
+         *
+         * @param command a non-null command
+         */
+        void handle(Command command);
+    }
+
+    /**
+     * What a {@link ChannelUID} is bound to - its channel, port number and command action
+     */
+    private static class ChannelBinding {
+        private final Channel channel;
+        private final int portNbr;
+        private final ChannelAction action;
+
+        private ChannelBinding(Channel channel, int portNbr, ChannelAction action) {
+            this.channel = channel;
+            this.portNbr = portNbr;
+            this.action = action;
+        }
+    }
+
+    /**
+     * The {@link ChannelBinding}s of every channel in a {@link AtlonaOpusChannelIndex} by {@link ChannelUID}. Commands
+     * (and refreshes) are dispatched with a single lookup rather than parsing the group and channel id each time.
+     */
+    private static class CommandTable {
+        private final AtlonaOpusChannelIndex index;
+        private final Map<ChannelUID, ChannelBinding> bindings = new HashMap<>();
+
+        private CommandTable(AtlonaOpusChannelIndex index) {
+            this.index = index;
+        }
+    }
 
     /**
      * Constructs the handler from the {@link org.eclipse.smarthome.core.thing.Thing} with the number of power ports and
@@ -97,10 +146,11 @@ public class AtlonaOpusHandler extends AtlonaHandler<AtlonaOpusCapabilities> {
      * {@inheritDoc}
      *
      * Handles commands to specific channels. This implementation will offload much of its work to the
-     * {@link AtlonaOpusProtocolHandler}. Basically we validate the type of command for the channel then call the
+     * {@link AtlonaOpusProtocolHandler}. The {@link ChannelAction} bound to the channel (see
+     * {@link #getCommandTable()}) validates the type of command for the channel then calls the
      * {@link AtlonaOpusProtocolHandler} to handle the actual protocol. Special use case is the {@link RefreshType}
-     * where we call {{@link #handleRefresh(String)} to handle a refresh of the specific channel (which in turn calls
-     * {@link AtlonaOpusProtocolHandler} to handle the actual refresh
+     * where we call {{@link #handleRefresh(ChannelUID)} to handle a refresh of the specific channel (which in turn
+     * calls {@link AtlonaOpusRefreshCoalescer} to merge the refreshes into as few queries as possible)
      */
     @Override
     public void handleCommand(ChannelUID channelUID, Command command) {
@@ -109,306 +159,406 @@ public class AtlonaOpusHandler extends AtlonaHandler<AtlonaOpusCapabilities> {
             return;
         }
 
-        final String group = channelUID.getGroupId().toLowerCase();
-        final String id = channelUID.getIdWithoutGroup().toLowerCase();
+        final ChannelBinding binding = getCommandTable().bindings.get(channelUID);
+        if (binding == null) {
+            logger.debug("Unknown/Unsupported Channel: {}", channelUID.getAsString());
+            return;
+        }
 
-        Matcher m;
-        if ((m = GROUP_PRIMARY_PATTERN.matcher(group)).matches()) {
-            switch (id) {
-                case AtlonaOpusConstants.CHANNEL_POWER:
-                    if (command instanceof OnOffType) {
-                        final boolean makeOn = ((OnOffType) command) == OnOffType.ON;
-                        atlonaHandler.setPower(makeOn);
-                    } else {
-                        logger.debug("Received a POWER channel command with a non OnOffType: {}", command);
-                    }
+        // Poll fast for a while so the effects of the command show up quickly
+        final AtlonaOpusPollingScheduler localPolling = polling;
+        if (localPolling != null) {
+            localPolling.boost(AtlonaOpusPollingScheduler.Reason.COMMAND);
+        }
 
-                    break;
+        binding.action.handle(command);
+    }
 
-                case AtlonaOpusConstants.CHANNEL_PANELLOCK:
-                    if (command instanceof OnOffType) {
-                        final boolean makeOn = ((OnOffType) command) == OnOffType.ON;
-                        atlonaHandler.setPanelLock(makeOn);
-                    } else {
-                        logger.debug("Received a PANELLOCK channel command with a non OnOffType: {}", command);
-                    }
-                    break;
+    /**
+     * Method that handles the {@link RefreshType} command specifically. Forgets the last known state of the channel and
+     * requests the refresh from the {@link AtlonaOpusRefreshCoalescer} (which merges the refreshes requested within
+     * its window into as few queries as possible).
+     *
+     * @param channelUID a non-null {@link ChannelUID} to refresh
+     */
+    private void handleRefresh(ChannelUID channelUID) {
+        final AtlonaOpusRefreshCoalescer localRefreshes = refreshes;
+        if (getThing().getStatus() != ThingStatus.ONLINE || localRefreshes == null) {
+            return;
+        }
 
-                case AtlonaOpusConstants.CHANNEL_IRENABLE:
-                    if (command instanceof OnOffType) {
-                        final boolean makeOn = ((OnOffType) command) == OnOffType.ON;
-                        atlonaHandler.setIrOn(makeOn);
-                    } else {
-                        logger.debug("Received a IRLOCK channel command with a non OnOffType: {}", command);
-                    }
+        final CommandTable table = getCommandTable();
+        final ChannelBinding binding = table.bindings.get(channelUID);
+        if (binding == null) {
+            return;
+        }
+
+        // the channel queried to refresh the bound channel (null if it can't be refreshed)
+        final Channel query;
+        switch (binding.channel) {
+            case POWER:
+            case PORTOUTPUT:
+            case PORTPOWER:
+            case PORTMIRROR:
+            case VOLUME:
+            case VOLUME_MUTE:
+                query = binding.channel;
+                break;
+            case PORTMIRRORENABLED:
+                query = Channel.PORTMIRROR;
+                break;
+            default:
+                query = null;
+                break;
+        }
+
+        if (query != null) {
+            ((StatefulHandlerCallback) atlonaHandler.getCallback())
+                    .removeState(table.index.getChannelId(binding.channel, binding.portNbr));
+            atlonaHandler.forgetState(binding.channel, binding.portNbr);
+            localRefreshes.request(query, binding.portNbr);
+        }
+    }
 
-                    break;
-                case AtlonaOpusConstants.CHANNEL_MATRIXCMDS:
+    /**
+     * Returns the {@link CommandTable} of the protocol handler's current {@link AtlonaOpusChannelIndex} - building it
+     * if the index has changed (the capabilities of the switch have been detected)
+     *
+     * @return a non-null {@link CommandTable}
+     */
+    private CommandTable getCommandTable() {
+        final AtlonaOpusChannelIndex index = atlonaHandler.getChannelIndex();
+        CommandTable table = commandTable;
+        if (table == null || table.index != index) {
+            final CommandTable newTable = new CommandTable(index);
+            index.forEachChannel((channel, portNbr, channelUID) -> newTable.bindings.put(channelUID,
+                    new ChannelBinding(channel, portNbr, createAction(channel, portNbr))));
+            commandTable = table = newTable;
+        }
+        return table;
+    }
+
+    /**
+     * Creates the {@link ChannelAction} handling the commands sent to the channel of the port number
+     *
+     * @param channel a non-null channel
+     * @param portNbr the port number of the channel (0 for primary channels)
+     * @return a non-null {@link ChannelAction}
+     */
+    private ChannelAction createAction(Channel channel, int portNbr) {
+        switch (channel) {
+            case POWER:
+                return onOffAction("POWER", on -> atlonaHandler.setPower(on));
+            case PANELLOCK:
+                return onOffAction("PANELLOCK", on -> atlonaHandler.setPanelLock(on));
+            case IRENABLE:
+                return onOffAction("IRLOCK", on -> atlonaHandler.setIrOn(on));
+            case MATRIXCMDS:
+                return command -> {
                     if (command instanceof StringType) {
-                        final String matrixCmd = command.toString();
-                        Matcher cmd;
-                        try {
-                            if ((cmd = CMD_MATRIXRESET.matcher(matrixCmd)).matches()) {
-                                atlonaHandler.resetMatrix();
-                            } else if ((cmd = CMD_MATRIXRESETPORTS.matcher(matrixCmd)).matches()) {
-                                atlonaHandler.resetAllPorts();
-                            } else if ((cmd = CMD_MATRIXPORTALL.matcher(matrixCmd)).matches()) {
-                                if (cmd.groupCount() == 1) {
-                                    final int portNbr = Integer.parseInt(cmd.group(1));
-                                    atlonaHandler.setPortAll(portNbr);
-                                } else {
-                                    logger.debug("Unknown matirx set port command: '{}'", matrixCmd);
-                                }
-
-                            } else {
-                                logger.debug("Unknown matrix command: '{}'", cmd);
-                            }
-                        } catch (NumberFormatException e) {
-                            logger.debug("Could not parse the port number from the command: '{}'", matrixCmd);
-                        }
+                        handleMatrixCommand(command.toString());
                     }
-                    break;
-                case AtlonaOpusConstants.CHANNEL_PRESETCMDS:
+                };
+            case PRESETCMDS:
+                return command -> {
                     if (command instanceof StringType) {
-                        final String presetCmd = command.toString();
-                        Matcher cmd;
-                        try {
-                            if ((cmd = CMD_PRESETSAVE.matcher(presetCmd)).matches()) {
-                                if (cmd.groupCount() == 1) {
-                                    final int presetNbr = Integer.parseInt(cmd.group(1));
-                                    atlonaHandler.saveIoSettings(presetNbr);
-                                } else {
-                                    logger.debug("Unknown preset save command: '{}'", presetCmd);
-                                }
-                            } else if ((cmd = CMD_PRESETRECALL.matcher(presetCmd)).matches()) {
-                                if (cmd.groupCount() == 1) {
-                                    final int presetNbr = Integer.parseInt(cmd.group(1));
-                                    atlonaHandler.recallIoSettings(presetNbr);
-                                } else {
-                                    logger.debug("Unknown preset recall command: '{}'", presetCmd);
-                                }
-                            } else if ((cmd = CMD_PRESETCLEAR.matcher(presetCmd)).matches()) {
-                                if (cmd.groupCount() == 1) {
-                                    final int presetNbr = Integer.parseInt(cmd.group(1));
-                                    atlonaHandler.clearIoSettings(presetNbr);
-                                } else {
-                                    logger.debug("Unknown preset clear command: '{}'", presetCmd);
-                                }
-
-                            } else {
-                                logger.debug("Unknown preset command: '{}'", cmd);
-                            }
-                        } catch (NumberFormatException e) {
-                            logger.debug("Could not parse the preset number from the command: '{}'", presetCmd);
+                        handlePresetCommand(command.toString());
+                    }
+                };
+            case PORTOUTPUT:
+                return decimalAction("PORTOUTPUT", inpNbr -> atlonaHandler.setPortSwitch(inpNbr.intValue(), portNbr));
+            case PORTPOWER:
+                return onOffAction("PORTPOWER", on -> atlonaHandler.setPortPower(portNbr, on));
+            case PORTMIRROR:
+                return decimalAction("PORTMIRROR", outPortNbr -> {
+                    if (outPortNbr.intValue() <= 0) {
+                        atlonaHandler.removePortMirror(portNbr);
+                    } else {
+                        atlonaHandler.setPortMirror(portNbr, outPortNbr.intValue());
+                    }
+                });
+            case PORTMIRRORENABLED:
+                return onOffAction("PORTMIRRORENABLED", on -> {
+                    if (on) {
+                        final StatefulHandlerCallback callback = (StatefulHandlerCallback) atlonaHandler
+                                .getCallback();
+                        final State state = callback
+                                .getState(atlonaHandler.getChannelIndex().getChannelId(Channel.PORTMIRROR, portNbr));
+                        int outPortNbr = 1;
+                        if (state != null && state instanceof DecimalType) {
+                            outPortNbr = ((DecimalType) state).intValue();
                         }
+                        atlonaHandler.setPortMirror(portNbr, outPortNbr);
+                    } else {
+                        atlonaHandler.removePortMirror(portNbr);
                     }
-                    break;
+                });
+            case VOLUME_MUTE:
+                return onOffAction("VOLUME MUTE", on -> atlonaHandler.setVolumeMute(portNbr, on));
+            case VOLUME:
+                return decimalAction("VOLUME", level -> atlonaHandler.setVolume(portNbr, level.doubleValue()));
+            default:
+                return command -> logger.debug("Unknown/Unsupported Channel: {}", channel);
+        }
+    }
 
-                default:
-                    logger.debug("Unknown/Unsupported Primary Channel: {}", channelUID.getAsString());
-                    break;
-            }
-        } else if ((m = GROUP_PORT_PATTERN.matcher(group)).matches()) {
-            if (m.groupCount() == 1) {
-                try {
-                    final int portNbr = Integer.parseInt(m.group(1));
-
-                    switch (id) {
-                        case AtlonaOpusConstants.CHANNEL_PORTOUTPUT:
-                            if (command instanceof DecimalType) {
-                                final int inpNbr = ((DecimalType) command).intValue();
-                                atlonaHandler.setPortSwitch(inpNbr, portNbr);
-                            } else {
-                                logger.debug("Received a PORTOUTPUT channel command with a non DecimalType: {}",
-                                        command);
-                            }
-
-                            break;
-
-                        case AtlonaOpusConstants.CHANNEL_PORTPOWER:
-                            if (command instanceof OnOffType) {
-                                final boolean makeOn = ((OnOffType) command) == OnOffType.ON;
-                                atlonaHandler.setPortPower(portNbr, makeOn);
-                            } else {
-                                logger.debug("Received a PORTPOWER channel command with a non OnOffType: {}", command);
-                            }
-                            break;
-                        default:
-                            logger.debug("Unknown/Unsupported Port Channel: {}", channelUID.getAsString());
-                            break;
-                    }
-                } catch (NumberFormatException e) {
-                    logger.debug("Bad Port Channel (can't parse the port nbr): {}", channelUID.getAsString());
-                }
+    /**
+     * Creates a {@link ChannelAction} that passes {@link OnOffType} commands to the action (and ignores others)
+     *
+     * @param name a non-null channel name to log
+     * @param action a non-null action given true for ON
+     * @return a non-null {@link ChannelAction}
+     */
+    private ChannelAction onOffAction(String name, Consumer<Boolean> action) {
+        return command -> {
+            if (command instanceof OnOffType) {
+                action.accept(command == OnOffType.ON);
+            } else {
+                logger.debug("Received a {} channel command with a non OnOffType: {}", name, command);
             }
-        } else if ((m = GROUP_MIRROR_PATTERN.matcher(group)).matches()) {
-            if (m.groupCount() == 1) {
-                try {
-                    final int hdmiPortNbr = Integer.parseInt(m.group(1));
-
-                    switch (id) {
-                        case AtlonaOpusConstants.CHANNEL_PORTMIRROR:
-                            if (command instanceof DecimalType) {
-                                final int outPortNbr = ((DecimalType) command).intValue();
-                                if (outPortNbr <= 0) {
-                                    atlonaHandler.removePortMirror(hdmiPortNbr);
-                                } else {
-                                    atlonaHandler.setPortMirror(hdmiPortNbr, outPortNbr);
-                                }
-                            } else {
-                                logger.debug("Received a PORTMIRROR channel command with a non DecimalType: {}",
-                                        command);
-                            }
-
-                            break;
-                        case AtlonaOpusConstants.CHANNEL_PORTMIRRORENABLED:
-                            if (command instanceof OnOffType) {
-                                if (command == OnOffType.ON) {
-                                    final StatefulHandlerCallback callback = (StatefulHandlerCallback) atlonaHandler
-                                            .getCallback();
-                                    final State state = callback.getState(AtlonaOpusConstants.CHANNEL_PORTMIRROR);
-                                    int outPortNbr = 1;
-                                    if (state != null && state instanceof DecimalType) {
-                                        outPortNbr = ((DecimalType) state).intValue();
-                                    }
-                                    atlonaHandler.setPortMirror(hdmiPortNbr, outPortNbr);
-                                } else {
-                                    atlonaHandler.removePortMirror(hdmiPortNbr);
-                                }
-                            } else {
-                                logger.debug("Received a PORTMIRROR channel command with a non DecimalType: {}",
-                                        command);
-                            }
-
-                            break;
-                        default:
-                            logger.debug("Unknown/Unsupported Mirror Channel: {}", channelUID.getAsString());
-                            break;
-                    }
-                } catch (NumberFormatException e) {
-                    logger.debug("Bad Mirror Channel (can't parse the port nbr): {}", channelUID.getAsString());
-                }
+        };
+    }
+
+    /**
+     * Creates a {@link ChannelAction} that passes {@link DecimalType} commands to the action (and ignores others)
+     *
+     * @param name a non-null channel name to log
+     * @param action a non-null action given the command
+     * @return a non-null {@link ChannelAction}
+     */
+    private ChannelAction decimalAction(String name, Consumer<DecimalType> action) {
+        return command -> {
+            if (command instanceof DecimalType) {
+                action.accept((DecimalType) command);
+            } else {
+                logger.debug("Received a {} channel command with a non DecimalType: {}", name, command);
             }
-        } else if ((m = GROUP_VOLUME_PATTERN.matcher(group)).matches()) {
-            if (m.groupCount() == 1) {
-                try {
-                    final int portNbr = Integer.parseInt(m.group(1));
-
-                    switch (id) {
-                        case AtlonaOpusConstants.CHANNEL_VOLUME_MUTE:
-                            if (command instanceof OnOffType) {
-                                atlonaHandler.setVolumeMute(portNbr, ((OnOffType) command) == OnOffType.ON);
-                            } else {
-                                logger.debug("Received a VOLUME MUTE channel command with a non OnOffType: {}",
-                                        command);
-                            }
-
-                            break;
-                        case AtlonaOpusConstants.CHANNEL_VOLUME:
-                            if (command instanceof DecimalType) {
-                                final double level = ((DecimalType) command).doubleValue();
-                                atlonaHandler.setVolume(portNbr, level);
-                            } else {
-                                logger.debug("Received a VOLUME channel command with a non DecimalType: {}", command);
-                            }
-                            break;
-
-                        default:
-                            logger.debug("Unknown/Unsupported Volume Channel: {}", channelUID.getAsString());
-                            break;
-                    }
-                } catch (NumberFormatException e) {
-                    logger.debug("Bad Volume Channel (can't parse the port nbr): {}", channelUID.getAsString());
-                }
+        };
+    }
+
+    /**
+     * Handles a command sent to the matrix command channel
+     *
+     * @param matrixCmd a non-null matrix command
+     */
+    private void handleMatrixCommand(String matrixCmd) {
+        int portNbr;
+        if (matrixCmd.equals(AtlonaOpusConstants.CMD_MATRIXRESET)) {
+            atlonaHandler.resetMatrix();
+        } else if (matrixCmd.equals(AtlonaOpusConstants.CMD_MATRIXRESETPORTS)) {
+            atlonaHandler.resetAllPorts();
+        } else if ((portNbr = parseCommandNbr(matrixCmd, AtlonaOpusConstants.CMD_MATRIXPORTALL)) >= 0) {
+            atlonaHandler.setPortAll(portNbr);
+        } else if (matrixCmd.startsWith(AtlonaOpusConstants.CMD_MATRIXRAMP)) {
+            handleRampCommand(matrixCmd);
+        } else if (matrixCmd.startsWith(AtlonaOpusConstants.CMD_MATRIXROUTE)) {
+            final AtlonaOpusScene scene = parseScene(matrixCmd, AtlonaOpusConstants.CMD_MATRIXROUTE.length());
+            if (scene == null) {
+                logger.debug("Could not parse the scene from the command: '{}'", matrixCmd);
+            } else {
+                atlonaHandler.applyScene(scene);
             }
         } else {
-            logger.debug("Unknown/Unsupported Channel: {}", channelUID.getAsString());
+            logger.debug("Unknown matrix command: '{}'", matrixCmd);
         }
     }
 
     /**
-     * Method that handles the {@link RefreshType} command specifically. Calls the {@link AtlonaOpusPortocolHandler} to
-     * handle the actual refresh based on the channel id.
+     * Handles a volume ramp command - "ramp" followed by the comma separated audio port number, target level (in
+     * decibels), duration (in milliseconds) and (optionally) the curve (like "ramp5,-40,3000,easeOut")
      *
-     * @param id a non-null, possibly empty channel id to refresh
+     * @param rampCmd a non-null ramp command
      */
-    private void handleRefresh(ChannelUID channelUID) {
-        if (getThing().getStatus() != ThingStatus.ONLINE) {
+    private void handleRampCommand(String rampCmd) {
+        final String[] parts = rampCmd.substring(AtlonaOpusConstants.CMD_MATRIXRAMP.length()).split(",");
+        if (parts.length < 3 || parts.length > 4) {
+            logger.debug("Unknown ramp command: '{}'", rampCmd);
             return;
         }
 
-        final String group = channelUID.getGroupId().toLowerCase();
-        final String id = channelUID.getIdWithoutGroup().toLowerCase();
-        final StatefulHandlerCallback callback = (StatefulHandlerCallback) atlonaHandler.getCallback();
+        try {
+            final int portNbr = Integer.parseInt(parts[0].trim());
+            final double level = Double.parseDouble(parts[1].trim());
+            final long durationMillis = Long.parseLong(parts[2].trim());
+            final AtlonaOpusVolumeRamps.Curve curve = AtlonaOpusVolumeRamps.Curve
+                    .fromString(parts.length == 4 ? parts[3].trim() : null);
+            atlonaHandler.rampVolume(portNbr, level, durationMillis, curve);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException is an IllegalArgumentException
+            logger.debug("Bad ramp command '{}': {}", rampCmd, e.getMessage());
+        }
+    }
 
-        Matcher m;
-        if ((m = GROUP_PRIMARY_PATTERN.matcher(group)).matches()) {
-            switch (id) {
-                case AtlonaOpusConstants.CHANNEL_POWER:
-                    callback.removeState(AtlonaOpusUtilities.createChannelID(group, id));
-                    atlonaHandler.refreshPower();
-                    break;
+    /**
+     * Handles a command sent to the preset command channel
+     *
+     * @param presetCmd a non-null preset command
+     */
+    private void handlePresetCommand(String presetCmd) {
+        int presetNbr;
+        if ((presetNbr = parseCommandNbr(presetCmd, AtlonaOpusConstants.CMD_PRESETSAVE)) >= 0) {
+            atlonaHandler.saveIoSettings(presetNbr);
+        } else if ((presetNbr = parseCommandNbr(presetCmd, AtlonaOpusConstants.CMD_PRESETRECALL)) >= 0) {
+            atlonaHandler.recallIoSettings(presetNbr);
+        } else if ((presetNbr = parseCommandNbr(presetCmd, AtlonaOpusConstants.CMD_PRESETCLEAR)) >= 0) {
+            atlonaHandler.clearIoSettings(presetNbr);
+        } else {
+            logger.debug("Unknown preset command: '{}'", presetCmd);
+        }
+    }
 
-                default:
-                    break;
-            }
+    /**
+     * Helper method to parse the number from a command that is a prefix followed by one or two digits (the regex
+     * "prefix\d{1,2}")
+     *
+     * @param cmd a non-null command
+     * @param prefix a non-null prefix
+     * @return the number or -1 if the command is not the prefix followed by one or two digits
+     */
+    private static int parseCommandNbr(String cmd, String prefix) {
+        final int end = AtlonaOpusUtilities.prefixedDigitsEnd(cmd, prefix);
+        if (end != cmd.length() || end - prefix.length() > 2) {
+            return -1;
+        }
+        return AtlonaOpusUtilities.parseDigits(cmd, prefix.length(), end);
+    }
 
-        } else if ((m = GROUP_PORT_PATTERN.matcher(group)).matches()) {
-            if (m.groupCount() == 1) {
-                try {
-                    final int portNbr = Integer.parseInt(m.group(1));
-                    callback.removeState(AtlonaOpusUtilities.createChannelID(group, portNbr, id));
-
-                    switch (id) {
-                        case AtlonaOpusConstants.CHANNEL_PORTOUTPUT:
-                            atlonaHandler.refreshPortStatus(portNbr);
-                            break;
-
-                        case AtlonaOpusConstants.CHANNEL_PORTPOWER:
-                            atlonaHandler.refreshPortPower(portNbr);
-                            break;
-                        default:
-                            break;
-                    }
-                } catch (NumberFormatException e) {
-                    logger.debug("Bad Port Channel (can't parse the port nbr): {}", channelUID.getAsString());
-                }
+    /**
+     * Helper method to parse a comma separated list of scene settings into a scene. Each setting is written just like
+     * the switch command that changes it:
+     * <ul>
+     * <li>a route - "x" input port "AVx" output port (like "x1AVx2")</li>
+     * <li>a port power - "x" port "$ " then "on" or "off" (like "x3$ off")</li>
+     * <li>a volume level - "VOUT" audio port " " then the level in decibels from -79 to 15 (like "VOUT2 -20")</li>
+     * <li>a volume mute - "VOUTMute" audio port " " then "on" or "off" (like "VOUTMute2 on")</li>
+     * </ul>
+     * Port numbers are one or two digits (so "routex1AVx2,VOUT2 -20,VOUTMute2 off" routes input 1 to output 2 and sets
+     * audio port 2 to -20dB unmuted).
+     *
+     * @param cmd a non-null command
+     * @param from the index the settings start at
+     * @return the scene or null if the settings could not be parsed
+     */
+    private static AtlonaOpusScene parseScene(String cmd, int from) {
+        final AtlonaOpusScene scene = new AtlonaOpusScene();
+        int idx = from;
+        while (true) {
+            int end = cmd.indexOf(',', idx);
+            if (end < 0) {
+                end = cmd.length();
+            }
+            if (!parseSceneSetting(scene, cmd.substring(idx, end))) {
+                return null;
+            }
+            if (end == cmd.length()) {
+                return scene;
+            }
+            idx = end + 1;
+        }
+    }
 
+    /**
+     * Helper method to parse a single scene setting (see {@link #parseScene(String, int)}) into the scene
+     *
+     * @param scene a non-null scene
+     * @param setting a non-null setting
+     * @return true if the setting was parsed, false otherwise
+     */
+    private static boolean parseSceneSetting(AtlonaOpusScene scene, String setting) {
+        int end;
+        if ((end = AtlonaOpusUtilities.prefixedDigitsEnd(setting, SCENE_PORT_PREFIX)) > 0) {
+            final int portNbr = parsePortNbr(setting, SCENE_PORT_PREFIX.length(), end);
+            if (portNbr <= 0) {
+                return false;
             }
-        } else if ((m = GROUP_MIRROR_PATTERN.matcher(group)).matches()) {
-            if (m.groupCount() == 1) {
-                try {
-                    final int hdmiPortNbr = Integer.parseInt(m.group(1));
-                    callback.removeState(AtlonaOpusUtilities.createChannelID(group, hdmiPortNbr, id));
-                    atlonaHandler.refreshPortMirror(hdmiPortNbr);
-                } catch (NumberFormatException e) {
-                    logger.debug("Bad Mirror Channel (can't parse the port nbr): {}", channelUID.getAsString());
+            if (AtlonaOpusUtilities.regionMatches(setting, end, SCENE_ROUTE)) {
+                final int outStart = end + SCENE_ROUTE.length();
+                final int outEnd = AtlonaOpusUtilities.skipDigits(setting, outStart);
+                final int outPortNbr = parsePortNbr(setting, outStart, outEnd);
+                if (outPortNbr <= 0 || outEnd != setting.length()) {
+                    return false;
                 }
+                scene.route(portNbr, outPortNbr);
+                return true;
+            }
+            final Boolean on = parseOnOff(setting, end, SCENE_PORT_POWER);
+            if (on == null) {
+                return false;
+            }
+            scene.portPower(portNbr, on);
+            return true;
+        }
 
+        if ((end = AtlonaOpusUtilities.prefixedDigitsEnd(setting, SCENE_VOLUME_MUTE_PREFIX)) > 0) {
+            final int portNbr = parsePortNbr(setting, SCENE_VOLUME_MUTE_PREFIX.length(), end);
+            final Boolean mute = parseOnOff(setting, end, SCENE_SEPARATOR);
+            if (portNbr <= 0 || mute == null) {
+                return false;
             }
-        } else if ((m = GROUP_VOLUME_PATTERN.matcher(group)).matches()) {
-            if (m.groupCount() == 1) {
-                try {
-                    final int portNbr = Integer.parseInt(m.group(1));
-                    callback.removeState(AtlonaOpusUtilities.createChannelID(group, portNbr, id));
-
-                    switch (id) {
-                        case AtlonaOpusConstants.CHANNEL_VOLUME_MUTE:
-                            atlonaHandler.refreshVolumeMute(portNbr);
-                            break;
-                        case AtlonaOpusConstants.CHANNEL_VOLUME:
-                            atlonaHandler.refreshVolumeStatus(portNbr);
-                            break;
-
-                        default:
-                            break;
-                    }
-                } catch (NumberFormatException e) {
-                    logger.debug("Bad Volume Channel (can't parse the port nbr): {}", channelUID.getAsString());
-                }
+            scene.volumeMute(portNbr, mute);
+            return true;
+        }
 
+        if ((end = AtlonaOpusUtilities.prefixedDigitsEnd(setting, SCENE_VOLUME_PREFIX)) > 0) {
+            final int portNbr = parsePortNbr(setting, SCENE_VOLUME_PREFIX.length(), end);
+            if (portNbr <= 0 || !AtlonaOpusUtilities.regionMatches(setting, end, SCENE_SEPARATOR)) {
+                return false;
             }
+            final int signStart = end + SCENE_SEPARATOR.length();
+            final boolean negative = AtlonaOpusUtilities.regionMatches(setting, signStart, "-");
+            final int levelStart = negative ? signStart + 1 : signStart;
+            final int levelEnd = AtlonaOpusUtilities.skipDigits(setting, levelStart);
+            final int level = AtlonaOpusUtilities.parseDigits(setting, levelStart, levelEnd);
+            if (level < 0 || levelEnd != setting.length()) {
+                return false;
+            }
+            try {
+                scene.volume(portNbr, negative ? -level : level);
+            } catch (IllegalArgumentException e) {
+                // the level is out of range
+                return false;
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Helper method to parse a port number of a scene setting - one or two digits greater than 0
+     *
+     * @param setting a non-null setting
+     * @param from the index the digits start at
+     * @param to the index the digits end at
+     * @return the port number or -1 if it's not one or two digits greater than 0
+     */
+    private static int parsePortNbr(String setting, int from, int to) {
+        if (to - from > 2) {
+            return -1;
+        }
+        final int portNbr = AtlonaOpusUtilities.parseDigits(setting, from, to);
+        return portNbr > 0 ? portNbr : -1;
+    }
+
+    /**
+     * Helper method to parse the remainder of a setting that should be the separator followed by "on" or "off"
+     *
+     * @param setting a non-null setting
+     * @param from the index the separator starts at
+     * @param separator a non-null separator
+     * @return true if "on", false if "off" or null if neither
+     */
+    private static Boolean parseOnOff(String setting, int from, String separator) {
+        if (!AtlonaOpusUtilities.regionMatches(setting, from, separator)) {
+            return null;
         }
+        if (AtlonaOpusUtilities.remainderEquals(setting, from + separator.length(), SCENE_ON)) {
+            return Boolean.TRUE;
+        }
+        if (AtlonaOpusUtilities.remainderEquals(setting, from + separator.length(), SCENE_OFF)) {
+            return Boolean.FALSE;
+        }
+        return null;
     }
 
     /**
@@ -432,28 +582,45 @@ public class AtlonaOpusHandler extends AtlonaHandler<AtlonaOpusCapabilities> {
             return;
         }
 
-        session = new SocketChannelSession(config.getIpAddress(), 23);
-        atlonaHandler = new AtlonaOpusProtocolHandler(session, config, getCapabilities(),
-                new StatefulHandlerCallback(new AtlonaHandlerCallback() {
-                    @Override
-                    public void stateChanged(String channelId, State state) {
-                        updateState(channelId, state);
-                    }
+        // use the capabilities of the model detected when last connected (if known) until the switch reports its type
+        AtlonaOpusCapabilities capabilities = AtlonaOpusCapabilities
+                .forType(getThing().getProperties().get(AtlonaOpusConstants.PROPERTY_TYPE));
+        if (capabilities == null) {
+            capabilities = getCapabilities();
+        }
 
-                    @Override
-                    public void statusChanged(ThingStatus status, ThingStatusDetail detail, String msg) {
-                        updateStatus(status, detail, msg);
+        session = new SharedSelectorSession(config.getIpAddress(), 23);
+        dispatcher = new AtlonaOpusStateDispatcher(scheduler, config, new AtlonaHandlerCallback() {
+            @Override
+            public void stateChanged(String channelId, State state) {
+                final ChannelUID channelUID = atlonaHandler.getChannelIndex().getChannelUID(channelId);
+                if (channelUID == null) {
+                    updateState(channelId, state);
+                } else {
+                    updateState(channelUID, state);
+                }
+            }
 
-                        if (status != ThingStatus.ONLINE) {
-                            disconnect(true);
-                        }
-                    }
+            @Override
+            public void statusChanged(ThingStatus status, ThingStatusDetail detail, String msg) {
+                updateStatus(status, detail, msg);
 
-                    @Override
-                    public void setProperty(String propertyName, String propertyValue) {
-                        getThing().setProperty(propertyName, propertyValue);
-                    }
-                }));
+                if (status != ThingStatus.ONLINE) {
+                    disconnect(true);
+                }
+            }
+
+            @Override
+            public void setProperty(String propertyName, String propertyValue) {
+                getThing().setProperty(propertyName, propertyValue);
+            }
+        });
+        // the stateful callback records an update as delivered when queued - forget it if the update is dropped
+        final StatefulHandlerCallback stateful = new StatefulHandlerCallback(dispatcher);
+        dispatcher.setDropListener(stateful::removeState);
+        atlonaHandler = new AtlonaOpusProtocolHandler(session, config, capabilities, stateful,
+                new AtlonaOpusChannelIndex(getThing().getUID(), capabilities), scheduler);
+        reconnectPolicy = new AtlonaOpusReconnectPolicy(config, atlonaHandler.getCallback());
 
         // Try initial connection in a scheduled task
         this.scheduler.schedule(this::connect, 1, TimeUnit.SECONDS);
@@ -461,77 +628,124 @@ public class AtlonaOpusHandler extends AtlonaHandler<AtlonaOpusCapabilities> {
 
     /**
      * Attempts to connect to the switch. If successfully connect, the {@link AtlonaOpusPortocolHandler#login()} will be
-     * called to log into the switch (if needed). Once completed, a polling job will be created to poll the switch's
-     * actual state and a ping job to ping the server. If a connection cannot be established (or login failed), the
-     * connection attempt will be retried later (via {@link #retryConnect()})
+     * called to log into the switch (if needed). The login completes asynchronously - once completed, an adaptive
+     * polling job (see {@link AtlonaOpusPollingScheduler}) will be started to poll the switch's actual state and a
+     * keepalive (see {@link AtlonaOpusKeepAlive}) to ping the server when the connection is idle. If a connection
+     * cannot be established (or login failed), the connection attempt will be retried later (via
+     * {@link #retryConnect()})
      */
     private void connect() {
-        String response = "Server is offline - will try to reconnect later";
         try {
             // clear listeners to avoid any 'old' listener from handling initial messages
             session.clearListeners();
             session.connect();
+        } catch (Exception e) {
+            loginFailed("Server is offline - will try to reconnect later");
+            return;
+        }
 
-            response = atlonaHandler.login();
-            if (response == null) {
-                final AtlonaOpusConfig config = getAtlonaConfig();
-                if (config != null) {
-                    polling = this.scheduler.scheduleWithFixedDelay(() -> {
-                        final ThingStatus status = getThing().getStatus();
-                        if (status == ThingStatus.ONLINE) {
-                            if (session.isConnected()) {
-                                atlonaHandler.refreshAll();
-                            } else {
-                                updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
-                                        "Atlona OPUS has disconnected. Will try to reconnect later.");
-                            }
-                        } else if (status == ThingStatus.OFFLINE) {
-                            disconnect(true);
-                        }
-                    }, config.getPolling(), config.getPolling(), TimeUnit.SECONDS);
-
-                    ping = this.scheduler.scheduleWithFixedDelay(() -> {
-                        final ThingStatus status = getThing().getStatus();
-                        if (status == ThingStatus.ONLINE) {
-                            if (session.isConnected()) {
-                                atlonaHandler.ping();
-                            }
-                        }
-                    }, config.getPing(), config.getPing(), TimeUnit.SECONDS);
+        // completed on the scheduler - the login completes on the session's I/O thread
+        atlonaHandler.login().whenCompleteAsync((response, e) -> {
+            if (e instanceof CancellationException) {
+                // disconnected (or disposed) while logging in
+                logger.debug("Login to Atlona OPUS was cancelled");
+            } else if (e != null) {
+                logger.debug("Login to Atlona OPUS failed: {}", e.getMessage());
+                loginFailed("Server is offline - will try to reconnect later");
+            } else if (response != null) {
+                loginFailed(response);
+            } else {
+                loggedIn();
+            }
+        }, this.scheduler);
+    }
+
+    /**
+     * Called when the login has succeeded. Starts the (adaptive) polling and the keepalive and marks the thing online.
+     * Synchronized with {@link #disconnect(boolean)} - if the session was disconnected before the login completed,
+     * nothing is started.
+     */
+    private synchronized void loggedIn() {
+        if (!session.isConnected()) {
+            logger.debug("Atlona OPUS disconnected before the login completed");
+            return;
+        }
+
+        final AtlonaOpusConfig config = getAtlonaConfig();
+        if (config == null) {
+            loginFailed("Server is offline - will try to reconnect later");
+            return;
+        }
 
-                    updateStatus(ThingStatus.ONLINE);
-                    return;
+        reconnectPolicy.connected();
+        polling = new AtlonaOpusPollingScheduler(this.scheduler, config, atlonaHandler.getCallback(), () -> {
+            final ThingStatus status = getThing().getStatus();
+            if (status == ThingStatus.ONLINE) {
+                if (!session.isConnected()) {
+                    updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                            "Atlona OPUS has disconnected. Will try to reconnect later.");
+                } else if (config.isPushMode()) {
+                    atlonaHandler.refreshStale();
+                } else {
+                    atlonaHandler.refreshAll();
                 }
+            } else if (status == ThingStatus.OFFLINE) {
+                disconnect(true);
             }
+        }, atlonaHandler::getLastBroadcast);
+        polling.start(AtlonaOpusPollingScheduler.Reason.RECONNECT);
 
-        } catch (Exception e) {
-            // do nothing
-        }
+        ping = new AtlonaOpusKeepAlive(this.scheduler, atlonaHandler, atlonaHandler.getCallback(),
+                TimeUnit.SECONDS.toMillis(Math.max(1, config.getPing())),
+                TimeUnit.SECONDS.toMillis(Math.max(1, config.getPingTimeout())));
+        ping.start();
+
+        refreshes = new AtlonaOpusRefreshCoalescer(this.scheduler, atlonaHandler,
+                Math.max(0, config.getRefreshWindow()));
 
+        updateStatus(ThingStatus.ONLINE);
+    }
+
+    /**
+     * Called when the connection or login has failed. Marks the thing offline and retries the connection later.
+     *
+     * @param response a non-null reason for the failure
+     */
+    private void loginFailed(String response) {
         updateStatus(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR, response);
         retryConnect();
     }
 
     /**
-     * Attempts to disconnect from the session and will optionally retry the connection attempt. The {@link #polling}
-     * will be cancelled, the {@link #ping} will be cancelled and both set to null then the {@link #session} will be
-     * disconnected.
+     * Attempts to disconnect from the session and will optionally retry the connection attempt. The {@link #polling},
+     * the {@link #ping} and the {@link #refreshes} will be stopped and set to null, the protocol handler stopped (see
+     * {@link AtlonaOpusProtocolHandler#stop()}) then the {@link #session} will be disconnected.
      *
      * @param retryConnection true to retry connection attempts after the disconnect
      */
-    private void disconnect(boolean retryConnection) {
+    private synchronized void disconnect(boolean retryConnection) {
         // Cancel polling
         if (polling != null) {
-            polling.cancel(true);
+            polling.stop();
             polling = null;
         }
 
-        // Cancel ping
+        // Stop the keepalive
         if (ping != null) {
-            ping.cancel(true);
+            ping.stop();
             ping = null;
         }
 
+        if (refreshes != null) {
+            refreshes.stop();
+            refreshes = null;
+        }
+
+        // Stop the login, commands and ramps so nothing writes to the session once disconnected
+        if (atlonaHandler != null) {
+            atlonaHandler.stop();
+        }
+
         try {
             session.disconnect();
         } catch (IOException e) {
@@ -544,20 +758,20 @@ public class AtlonaOpusHandler extends AtlonaHandler<AtlonaOpusCapabilities> {
     }
 
     /**
-     * Retries the connection attempt - schedules a job in {@link AtlonaOpusConfig#getRetryPolling()} seconds to call
-     * the
-     * {@link #connect()} method. If a retry attempt is pending, the request is ignored.
+     * Retries the connection attempt - schedules a job to call the {@link #connect()} method after the delay decided by
+     * the {@link AtlonaOpusReconnectPolicy} (immediately for the first attempt, then backing off from
+     * {@link AtlonaOpusConfig#getRetryPolling()} seconds). If a retry attempt is pending, the request is ignored.
      */
-    private void retryConnect() {
+    private synchronized void retryConnect() {
         if (retryConnection == null) {
-            final AtlonaOpusConfig config = getAtlonaConfig();
-            if (config != null) {
-                logger.info("Will try to reconnect in {} seconds", config.getRetryPolling());
-                retryConnection = this.scheduler.schedule(() -> {
+            final long delayMillis = reconnectPolicy.nextDelay();
+            logger.info("Will try to reconnect in {} milliseconds", delayMillis);
+            retryConnection = this.scheduler.schedule(() -> {
+                synchronized (this) {
                     retryConnection = null;
-                    connect();
-                }, config.getRetryPolling(), TimeUnit.SECONDS);
-            }
+                }
+                connect();
+            }, delayMillis, TimeUnit.MILLISECONDS);
         } else {
             logger.debug("RetryConnection called when a retry connection is pending - ignoring request");
         }
@@ -578,15 +792,41 @@ public class AtlonaOpusHandler extends AtlonaHandler<AtlonaOpusCapabilities> {
         return config;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Deletes the presets persisted for the switch (see {@link AtlonaOpusPresetCache}) before the thing is removed
+     */
+    @Override
+    public void handleRemoval() {
+        if (atlonaHandler != null) {
+            atlonaHandler.removePresets();
+        } else {
+            new AtlonaOpusPresetCache(scheduler, AtlonaOpusPresetCache.getFile(getThing().getUID())).delete();
+        }
+        super.handleRemoval();
+    }
+
     /**
      * {@inheritDoc}
      *
      * Disposes of the handler. Will simply call {@link #disconnect(boolean)} to disconnect and NOT retry the
-     * connection
+     * connection, stop the {@link #dispatcher} (discarding any state updates not yet dispatched) then cancel any
+     * pending connection retry
      */
     @Override
     public void dispose() {
         disconnect(false);
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+
+        synchronized (this) {
+            if (retryConnection != null) {
+                retryConnection.cancel(false);
+                retryConnection = null;
+            }
+        }
     }
 
 }
@@ -0,0 +1,152 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.smarthome.core.thing.ThingStatus;
+import org.eclipse.smarthome.core.thing.ThingStatusDetail;
+import org.openhab.binding.atlona.internal.AtlonaHandlerCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the connection to the switch alive by pinging it - but only once the connection has been idle (no response
+ * read or no command written) for the idle time. While commands and broadcasts are flowing no pings are sent at all.
+ * A ping that isn't responded to within the probe timeout means the switch is gone and the thing is taken offline
+ * (rather than waiting for the next poll to notice).
+ */
+class AtlonaOpusKeepAlive {
+
+    private final Logger logger = LoggerFactory.getLogger(AtlonaOpusKeepAlive.class);
+
+    /**
+     * The scheduler the idle checks are scheduled on
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The {@link AtlonaOpusProtocolHandler} that tracks the traffic and sends the pings
+     */
+    private final AtlonaOpusProtocolHandler protocolHandler;
+
+    /**
+     * The {@link AtlonaHandlerCallback} to report a dead connection to
+     */
+    private final AtlonaHandlerCallback callback;
+
+    /**
+     * The time (in milliseconds) the connection may be idle before it is probed
+     */
+    private final long idleMillis;
+
+    /**
+     * The time (in milliseconds) the switch has to respond to a probe
+     */
+    private final long timeoutMillis;
+
+    /**
+     * The next idle check (null if stopped)
+     */
+    private ScheduledFuture<?> next;
+
+    /**
+     * Constructs the keepalive from the given parameters
+     *
+     * @param scheduler a non-null scheduler
+     * @param protocolHandler a non-null {@link AtlonaOpusProtocolHandler}
+     * @param callback a non-null {@link AtlonaHandlerCallback}
+     * @param idleMillis a greater than 0 idle time (in milliseconds)
+     * @param timeoutMillis a greater than 0 probe timeout (in milliseconds)
+     */
+    AtlonaOpusKeepAlive(ScheduledExecutorService scheduler, AtlonaOpusProtocolHandler protocolHandler,
+            AtlonaHandlerCallback callback, long idleMillis, long timeoutMillis) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler cannot be null");
+        }
+        if (protocolHandler == null) {
+            throw new IllegalArgumentException("protocolHandler cannot be null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback cannot be null");
+        }
+        if (idleMillis < 1) {
+            throw new IllegalArgumentException("idleMillis must be greater than 0");
+        }
+        if (timeoutMillis < 1) {
+            throw new IllegalArgumentException("timeoutMillis must be greater than 0");
+        }
+
+        this.scheduler = scheduler;
+        this.protocolHandler = protocolHandler;
+        this.callback = callback;
+        this.idleMillis = idleMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Starts watching the connection for idleness
+     */
+    synchronized void start() {
+        schedule(idleMillis);
+    }
+
+    /**
+     * Stops watching the connection
+     */
+    synchronized void stop() {
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    /**
+     * Checks whether the connection has been idle for the idle time. If so, the switch is probed - otherwise the check
+     * is rescheduled for when the connection would become idle.
+     */
+    private void check() {
+        final long idleFor = System.currentTimeMillis() - protocolHandler.getLastTraffic();
+        if (idleFor < idleMillis) {
+            synchronized (this) {
+                if (next != null) {
+                    schedule(idleMillis - idleFor);
+                }
+            }
+            return;
+        }
+
+        logger.trace("Connection idle for {}ms - probing the switch", idleFor);
+        protocolHandler.ping(timeoutMillis).whenComplete((r, e) -> {
+            final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+            if (cause instanceof TimeoutException) {
+                synchronized (this) {
+                    if (next == null) {
+                        // stopped while probing
+                        return;
+                    }
+                    next = null;
+                }
+                callback.statusChanged(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                        "Atlona OPUS did not respond to a keepalive within " + timeoutMillis + "ms");
+            } else {
+                synchronized (this) {
+                    if (next != null) {
+                        schedule(idleMillis);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Schedules the next idle check
+     *
+     * @param delayMillis the delay (in milliseconds) until the check
+     */
+    private void schedule(long delayMillis) {
+        next = scheduler.schedule(this::check, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
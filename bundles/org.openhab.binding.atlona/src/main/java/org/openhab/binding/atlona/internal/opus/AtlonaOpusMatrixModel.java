@@ -0,0 +1,247 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.Arrays;
+
+/**
+ * The last known state of the switch's matrix - the routing (output port to input port), port power, volume level and
+ * volume mute of each port - kept in primitive arrays indexed by port number. Responses are diffed against the model
+ * so that a state update is only emitted for the cells that actually changed (a "Status" poll of an unchanged matrix
+ * then emits nothing).
+ *
+ * Every update method returns true if the value differs from the model (and records it). Unknown cells (never
+ * reported or invalidated) always differ. Port numbers outside of the capabilities are never recorded and always
+ * differ. The model is updated by the session's reader thread and invalidated by refreshes so all access is
+ * synchronized.
+ */
+class AtlonaOpusMatrixModel {
+
+    /**
+     * The value of an unknown routing cell
+     */
+    private static final int UNKNOWN_ROUTE = -1;
+
+    /**
+     * The value of an unknown on/off cell
+     */
+    private static final byte UNKNOWN_FLAG = -1;
+
+    /**
+     * The input port routed to each output port (indexed by output port number)
+     */
+    private final int[] routing;
+
+    /**
+     * The power of each port (0 off, 1 on) indexed by port number
+     */
+    private final byte[] portPower;
+
+    /**
+     * The volume level of each audio port (NaN if unknown) indexed by port number
+     */
+    private final double[] volume;
+
+    /**
+     * The volume mute of each audio port (0 off, 1 on) indexed by port number
+     */
+    private final byte[] volumeMute;
+
+    /**
+     * Constructs the (all unknown) model for the ports described by the capabilities
+     *
+     * @param capabilities a non-null {@link AtlonaOpusCapabilities}
+     */
+    AtlonaOpusMatrixModel(AtlonaOpusCapabilities capabilities) {
+        if (capabilities == null) {
+            throw new IllegalArgumentException("capabilities cannot be null");
+        }
+
+        final int nbrPorts = capabilities.getMaxPortNbr() + 1;
+        routing = new int[nbrPorts];
+        portPower = new byte[nbrPorts];
+        volume = new double[nbrPorts];
+        volumeMute = new byte[nbrPorts];
+        invalidate();
+    }
+
+    /**
+     * Records the input port routed to the output port
+     *
+     * @param outPortNbr the output port number
+     * @param inPortNbr the input port number
+     * @return true if the routing changed
+     */
+    synchronized boolean updateRouting(int outPortNbr, int inPortNbr) {
+        if (outPortNbr < 0 || outPortNbr >= routing.length) {
+            return true;
+        }
+        if (routing[outPortNbr] == inPortNbr) {
+            return false;
+        }
+        routing[outPortNbr] = inPortNbr;
+        return true;
+    }
+
+    /**
+     * Returns the input port last known to be routed to the output port
+     *
+     * @param outPortNbr the output port number
+     * @return the input port number or -1 if unknown
+     */
+    synchronized int getRouting(int outPortNbr) {
+        return outPortNbr < 0 || outPortNbr >= routing.length ? UNKNOWN_ROUTE : routing[outPortNbr];
+    }
+
+    /**
+     * Returns a copy of the routing of every output port
+     *
+     * @return a non-null array of the input port number (or -1 if unknown) indexed by output port number
+     */
+    synchronized int[] getRouting() {
+        return routing.clone();
+    }
+
+    /**
+     * Returns the power last known for the port
+     *
+     * @param portNbr the port number
+     * @return 1 if on, 0 if off or -1 if unknown
+     */
+    synchronized int getPortPower(int portNbr) {
+        return portNbr < 0 || portNbr >= portPower.length ? UNKNOWN_FLAG : portPower[portNbr];
+    }
+
+    /**
+     * Returns the volume level last known for the audio port
+     *
+     * @param portNbr the audio port number
+     * @return the volume level or NaN if unknown
+     */
+    synchronized double getVolume(int portNbr) {
+        return portNbr < 0 || portNbr >= volume.length ? Double.NaN : volume[portNbr];
+    }
+
+    /**
+     * Returns the volume mute last known for the audio port
+     *
+     * @param portNbr the audio port number
+     * @return 1 if muted, 0 if not muted or -1 if unknown
+     */
+    synchronized int getVolumeMute(int portNbr) {
+        return portNbr < 0 || portNbr >= volumeMute.length ? UNKNOWN_FLAG : volumeMute[portNbr];
+    }
+
+    /**
+     * Records the power of the port
+     *
+     * @param portNbr the port number
+     * @param on true if on, false otherwise
+     * @return true if the power changed
+     */
+    synchronized boolean updatePortPower(int portNbr, boolean on) {
+        return updateFlag(portPower, portNbr, on);
+    }
+
+    /**
+     * Records the volume level of the audio port
+     *
+     * @param portNbr the audio port number
+     * @param level the volume level
+     * @return true if the level changed
+     */
+    synchronized boolean updateVolume(int portNbr, double level) {
+        if (portNbr < 0 || portNbr >= volume.length) {
+            return true;
+        }
+        // NaN (unknown) never equals the level
+        if (volume[portNbr] == level) {
+            return false;
+        }
+        volume[portNbr] = level;
+        return true;
+    }
+
+    /**
+     * Records the volume mute of the audio port
+     *
+     * @param portNbr the audio port number
+     * @param mute true if muted, false otherwise
+     * @return true if the mute changed
+     */
+    synchronized boolean updateVolumeMute(int portNbr, boolean mute) {
+        return updateFlag(volumeMute, portNbr, mute);
+    }
+
+    /**
+     * Forgets the routing of the output port (the next routing reported for it will be emitted)
+     *
+     * @param outPortNbr the output port number
+     */
+    synchronized void invalidateRouting(int outPortNbr) {
+        if (outPortNbr >= 0 && outPortNbr < routing.length) {
+            routing[outPortNbr] = UNKNOWN_ROUTE;
+        }
+    }
+
+    /**
+     * Forgets the power of the port (the next power reported for it will be emitted)
+     *
+     * @param portNbr the port number
+     */
+    synchronized void invalidatePortPower(int portNbr) {
+        if (portNbr >= 0 && portNbr < portPower.length) {
+            portPower[portNbr] = UNKNOWN_FLAG;
+        }
+    }
+
+    /**
+     * Forgets the volume level of the audio port (the next level reported for it will be emitted)
+     *
+     * @param portNbr the audio port number
+     */
+    synchronized void invalidateVolume(int portNbr) {
+        if (portNbr >= 0 && portNbr < volume.length) {
+            volume[portNbr] = Double.NaN;
+        }
+    }
+
+    /**
+     * Forgets the volume mute of the audio port (the next mute reported for it will be emitted)
+     *
+     * @param portNbr the audio port number
+     */
+    synchronized void invalidateVolumeMute(int portNbr) {
+        if (portNbr >= 0 && portNbr < volumeMute.length) {
+            volumeMute[portNbr] = UNKNOWN_FLAG;
+        }
+    }
+
+    /**
+     * Forgets the whole model (everything reported next will be emitted)
+     */
+    synchronized void invalidate() {
+        Arrays.fill(routing, UNKNOWN_ROUTE);
+        Arrays.fill(portPower, UNKNOWN_FLAG);
+        Arrays.fill(volume, Double.NaN);
+        Arrays.fill(volumeMute, UNKNOWN_FLAG);
+    }
+
+    /**
+     * Helper method to record an on/off cell
+     *
+     * @param flags a non-null array of flags
+     * @param portNbr the port number
+     * @param on true if on, false otherwise
+     * @return true if the flag changed
+     */
+    private static boolean updateFlag(byte[] flags, int portNbr, boolean on) {
+        if (portNbr < 0 || portNbr >= flags.length) {
+            return true;
+        }
+        final byte flag = on ? (byte) 1 : (byte) 0;
+        if (flags[portNbr] == flag) {
+            return false;
+        }
+        flags[portNbr] = flag;
+        return true;
+    }
+}
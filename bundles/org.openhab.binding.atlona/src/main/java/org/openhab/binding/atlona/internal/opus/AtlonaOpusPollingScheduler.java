@@ -0,0 +1,283 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openhab.binding.atlona.internal.AtlonaHandlerCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the polling of the switch with an interval that adapts to how the switch is being used. After a command or
+ * a reconnect the switch is polled at the shortest interval for a short period (so the state settles quickly). While
+ * broadcast notifications keep arriving between polls the interval backs off exponentially (the broadcasts are keeping
+ * the state fresh). Otherwise the configured polling interval is used. The interval is always kept between the
+ * shortest and longest configured intervals.
+ *
+ * Each poll schedules the next one (rather than using a fixed delay) so a change of interval takes effect immediately.
+ * The current interval and the reason for it are published as thing properties.
+ */
+class AtlonaOpusPollingScheduler {
+
+    private final Logger logger = LoggerFactory.getLogger(AtlonaOpusPollingScheduler.class);
+
+    /**
+     * The reasons for the current polling interval
+     */
+    enum Reason {
+        RECONNECT("fast polling after reconnect"),
+        COMMAND("fast polling after command"),
+        BROADCAST("backing off while broadcasts keep state fresh"),
+        CONFIGURED("configured polling");
+
+        /**
+         * The description published as the polling reason property
+         */
+        private final String description;
+
+        Reason(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * The scheduler the polls are scheduled on
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The {@link AtlonaHandlerCallback} the interval and reason properties are published to
+     */
+    private final AtlonaHandlerCallback callback;
+
+    /**
+     * The poll to run
+     */
+    private final Runnable poll;
+
+    /**
+     * Supplies the time (in milliseconds, 0 if none) the last broadcast notification was received
+     */
+    private final LongSupplier lastBroadcast;
+
+    /**
+     * The shortest interval (in milliseconds)
+     */
+    private final long minMillis;
+
+    /**
+     * The longest interval (in milliseconds)
+     */
+    private final long maxMillis;
+
+    /**
+     * The configured interval (in milliseconds) - within the shortest and longest intervals
+     */
+    private final long baseMillis;
+
+    /**
+     * How long (in milliseconds) the shortest interval is used for after a command or reconnect
+     */
+    private final long fastMillis;
+
+    /**
+     * Whether polling has been started (and not stopped)
+     */
+    private boolean running;
+
+    /**
+     * Incremented each time a poll is scheduled - a poll whose generation is no longer current was replaced
+     */
+    private long generation;
+
+    /**
+     * The next scheduled poll (null if none)
+     */
+    private ScheduledFuture<?> next;
+
+    /**
+     * The time (in milliseconds) the next poll is scheduled for
+     */
+    private long nextAt;
+
+    /**
+     * The time (in milliseconds) the last poll started
+     */
+    private long lastPollAt;
+
+    /**
+     * The time (in milliseconds) until which the shortest interval is used
+     */
+    private long fastUntil;
+
+    /**
+     * The current interval (in milliseconds)
+     */
+    private long intervalMillis;
+
+    /**
+     * The reason for the current interval
+     */
+    private Reason reason;
+
+    /**
+     * Constructs the polling scheduler from the given parameters
+     *
+     * @param scheduler a non-null scheduler
+     * @param config a non-null {@link AtlonaOpusConfig} with the polling intervals
+     * @param callback a non-null {@link AtlonaHandlerCallback} to publish the interval and reason to
+     * @param poll a non-null poll to run
+     * @param lastBroadcast a non-null supplier of the time the last broadcast notification was received
+     */
+    AtlonaOpusPollingScheduler(ScheduledExecutorService scheduler, AtlonaOpusConfig config,
+            AtlonaHandlerCallback callback, Runnable poll, LongSupplier lastBroadcast) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler cannot be null");
+        }
+        if (config == null) {
+            throw new IllegalArgumentException("config cannot be null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback cannot be null");
+        }
+        if (poll == null) {
+            throw new IllegalArgumentException("poll cannot be null");
+        }
+        if (lastBroadcast == null) {
+            throw new IllegalArgumentException("lastBroadcast cannot be null");
+        }
+
+        this.scheduler = scheduler;
+        this.callback = callback;
+        this.poll = poll;
+        this.lastBroadcast = lastBroadcast;
+        this.minMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getMinPolling()));
+        this.maxMillis = Math.max(minMillis, TimeUnit.SECONDS.toMillis(config.getMaxPolling()));
+        this.baseMillis = clamp(TimeUnit.SECONDS.toMillis(config.getPolling()));
+        this.fastMillis = TimeUnit.SECONDS.toMillis(Math.max(0, config.getFastPolling()));
+    }
+
+    /**
+     * Starts polling - polling starts fast for the given reason
+     *
+     * @param startReason a non-null reason (usually {@link Reason#RECONNECT})
+     */
+    synchronized void start(Reason startReason) {
+        running = true;
+        lastPollAt = System.currentTimeMillis();
+        boost(startReason);
+    }
+
+    /**
+     * Switches to the shortest interval for the fast polling period. The next poll is brought forward if it was
+     * scheduled later than the shortest interval.
+     *
+     * @param boostReason a non-null reason (usually {@link Reason#COMMAND})
+     */
+    synchronized void boost(Reason boostReason) {
+        if (!running) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        fastUntil = now + fastMillis;
+        setInterval(minMillis, boostReason);
+        if (next == null || nextAt > now + minMillis) {
+            scheduleNext(now);
+        }
+    }
+
+    /**
+     * Stops polling (a poll in progress completes but schedules no further polls)
+     */
+    synchronized void stop() {
+        running = false;
+        generation++;
+        if (next != null) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    /**
+     * Runs the poll (if it wasn't replaced) and schedules the next one
+     *
+     * @param pollGeneration the generation the poll was scheduled as
+     */
+    private void run(long pollGeneration) {
+        synchronized (this) {
+            if (!running || pollGeneration != generation) {
+                return;
+            }
+        }
+
+        try {
+            poll.run();
+        } catch (RuntimeException e) {
+            logger.debug("Exception polling the Atlona OPUS: {}", e.getMessage(), e);
+        }
+
+        synchronized (this) {
+            // stopped or boosted while polling - nothing (more) to schedule
+            if (!running || pollGeneration != generation) {
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            if (now < fastUntil) {
+                setInterval(minMillis, reason);
+            } else if (lastBroadcast.getAsLong() > lastPollAt) {
+                setInterval(clamp(reason == Reason.BROADCAST ? intervalMillis * 2 : baseMillis * 2), Reason.BROADCAST);
+            } else {
+                setInterval(baseMillis, Reason.CONFIGURED);
+            }
+            lastPollAt = now;
+            scheduleNext(now);
+        }
+    }
+
+    /**
+     * Schedules the next poll after the current interval (replacing any scheduled poll)
+     *
+     * @param now the current time in milliseconds
+     */
+    private void scheduleNext(long now) {
+        if (next != null) {
+            next.cancel(false);
+        }
+        final long pollGeneration = ++generation;
+        nextAt = now + intervalMillis;
+        next = scheduler.schedule(() -> run(pollGeneration), intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sets the current interval and reason - publishing them if they changed
+     *
+     * @param newIntervalMillis the new interval (in milliseconds)
+     * @param newReason the non-null reason
+     */
+    private void setInterval(long newIntervalMillis, Reason newReason) {
+        if (newIntervalMillis != intervalMillis) {
+            intervalMillis = newIntervalMillis;
+            callback.setProperty(AtlonaOpusConstants.PROPERTY_POLLING_INTERVAL,
+                    String.valueOf(TimeUnit.MILLISECONDS.toSeconds(intervalMillis)));
+        }
+        if (newReason != reason) {
+            logger.debug("Polling every {}ms: {}", intervalMillis, newReason.description);
+            reason = newReason;
+            callback.setProperty(AtlonaOpusConstants.PROPERTY_POLLING_REASON, reason.description);
+        }
+    }
+
+    /**
+     * Helper method to keep an interval within the shortest and longest intervals
+     *
+     * @param millis the interval (in milliseconds)
+     * @return the interval within the shortest and longest intervals
+     */
+    private long clamp(long millis) {
+        return Math.max(minMillis, Math.min(maxMillis, millis));
+    }
+}
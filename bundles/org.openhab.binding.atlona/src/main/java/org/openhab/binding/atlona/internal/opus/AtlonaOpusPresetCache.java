@@ -0,0 +1,256 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.smarthome.config.core.ConfigConstants;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The routing of each preset saved on the switch (input port by output port number, -1 if unknown). The routing known
+ * when a preset is saved is remembered so that recalling the preset can update the routing immediately (and scenes can
+ * recall a preset rather than sending each routing). The presets are persisted per switch in the user data folder - a
+ * compact binary file (a version byte, the number of presets then for each preset its number, the number of routings
+ * and one byte per routing) loaded and written on the scheduler (never on the thread handling the responses) and
+ * deleted when the switch is removed.
+ */
+class AtlonaOpusPresetCache {
+
+    private final Logger logger = LoggerFactory.getLogger(AtlonaOpusPresetCache.class);
+
+    /**
+     * The version of the file format
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * The highest preset number (the file stores each preset number in a byte)
+     */
+    static final int MAX_PRESET_NBR = 255;
+
+    /**
+     * The folder (within the user data folder) the presets are persisted in
+     */
+    private static final String FOLDER = "atlona";
+
+    /**
+     * The scheduler the presets are persisted on
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The file the presets are persisted to
+     */
+    private final File file;
+
+    /**
+     * The routing by preset number
+     */
+    private final Map<Integer, int[]> routings = new ConcurrentHashMap<>();
+
+    /**
+     * Whether persisting the presets has been scheduled (and not yet started)
+     */
+    private final AtomicBoolean persistScheduled = new AtomicBoolean();
+
+    /**
+     * Whether the file has been deleted (nothing is persisted afterwards). Guarded by this.
+     */
+    private boolean deleted;
+
+    /**
+     * Constructs the cache from the given parameters
+     *
+     * @param scheduler a non-null scheduler
+     * @param file a non-null file the presets are persisted to
+     */
+    AtlonaOpusPresetCache(ScheduledExecutorService scheduler, File file) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler cannot be null");
+        }
+
+        if (file == null) {
+            throw new IllegalArgumentException("file cannot be null");
+        }
+
+        this.scheduler = scheduler;
+        this.file = file;
+    }
+
+    /**
+     * Returns the file the presets of the switch are persisted to
+     *
+     * @param thingUID a non-null {@link ThingUID} of the switch
+     * @return a non-null file within the user data folder
+     */
+    static File getFile(ThingUID thingUID) {
+        if (thingUID == null) {
+            throw new IllegalArgumentException("thingUID cannot be null");
+        }
+        return new File(new File(ConfigConstants.getUserDataFolder(), FOLDER),
+                thingUID.getAsString().replace(':', '_') + ".presets");
+    }
+
+    /**
+     * Loads the persisted presets (if any) on the scheduler. A missing, unreadable or unknown version file is ignored.
+     * A preset saved while loading is not replaced by its persisted routing.
+     */
+    void load() {
+        scheduler.execute(this::read);
+    }
+
+    /**
+     * Reads the persisted presets (if any) from the file
+     */
+    private synchronized void read() {
+        if (deleted || !file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readUnsignedByte() != FORMAT_VERSION) {
+                logger.debug("Ignoring presets of an unknown format in {}", file);
+                return;
+            }
+            final int nbrPresets = in.readUnsignedByte();
+            for (int p = 0; p < nbrPresets; p++) {
+                final int presetNbr = in.readUnsignedByte();
+                final int[] routing = new int[in.readUnsignedByte()];
+                for (int x = 0; x < routing.length; x++) {
+                    routing[x] = in.readByte();
+                }
+                routings.putIfAbsent(presetNbr, routing);
+            }
+            logger.debug("Loaded {} presets from {}", nbrPresets, file);
+        } catch (IOException e) {
+            logger.debug("Could not load the presets from {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Remembers the routing of the preset (and persists it)
+     *
+     * @param presetNbr a preset number between 1 and {@link #MAX_PRESET_NBR}
+     * @param routing a non-null routing (input port by output port number, -1 if unknown)
+     */
+    void put(int presetNbr, int[] routing) {
+        if (presetNbr <= 0 || presetNbr > MAX_PRESET_NBR) {
+            throw new IllegalArgumentException("presetNbr must be between 1 and " + MAX_PRESET_NBR);
+        }
+        if (routing == null) {
+            throw new IllegalArgumentException("routing cannot be null");
+        }
+        routings.put(presetNbr, routing.clone());
+        schedulePersist();
+    }
+
+    /**
+     * Forgets the routing of the preset (and persists that)
+     *
+     * @param presetNbr the preset number
+     */
+    void remove(int presetNbr) {
+        if (routings.remove(presetNbr) != null) {
+            schedulePersist();
+        }
+    }
+
+    /**
+     * Returns the routing of the preset
+     *
+     * @param presetNbr the preset number
+     * @return a copy of the routing (input port by output port number, -1 if unknown) or null if not known
+     */
+    int[] get(int presetNbr) {
+        final int[] routing = routings.get(presetNbr);
+        return routing == null ? null : routing.clone();
+    }
+
+    /**
+     * Returns the routing of every known preset
+     *
+     * @return a non-null, possibly empty map of preset number to the routing (input port by output port number)
+     */
+    Map<Integer, int[]> getAll() {
+        final Map<Integer, int[]> all = new HashMap<>();
+        for (Map.Entry<Integer, int[]> entry : routings.entrySet()) {
+            all.put(entry.getKey(), entry.getValue().clone());
+        }
+        return all;
+    }
+
+    /**
+     * Forgets every preset and deletes the file (nothing is persisted afterwards). Called when the switch is removed.
+     */
+    synchronized void delete() {
+        deleted = true;
+        routings.clear();
+        if (file.exists() && !file.delete()) {
+            logger.debug("Could not delete the presets file {}", file);
+        }
+    }
+
+    /**
+     * Schedules persisting the presets (unless already scheduled) so the file isn't written on the caller's thread
+     */
+    private void schedulePersist() {
+        if (persistScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                persistScheduled.set(false);
+                persist();
+            });
+        }
+    }
+
+    /**
+     * Writes the presets to a temporary file which then replaces the file (so a failed write never leaves a partial
+     * file behind)
+     */
+    private synchronized void persist() {
+        if (deleted) {
+            return;
+        }
+
+        final Map<Integer, int[]> all = getAll();
+        final File folder = file.getParentFile();
+        if (folder != null && !folder.isDirectory() && !folder.mkdirs()) {
+            logger.debug("Could not create the folder {} for the presets", folder);
+            return;
+        }
+
+        final File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeByte(FORMAT_VERSION);
+                out.writeByte(all.size());
+                for (Map.Entry<Integer, int[]> entry : all.entrySet()) {
+                    final int[] routing = entry.getValue();
+                    out.writeByte(entry.getKey());
+                    out.writeByte(routing.length);
+                    for (int inPortNbr : routing) {
+                        out.writeByte(inPortNbr);
+                    }
+                }
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.debug("Could not persist the presets to {}: {}", file, e.getMessage());
+        }
+    }
+}
@@ -1,20 +1,30 @@
 package org.openhab.binding.atlona.internal.opus;
 
 import java.io.IOException;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
-import org.apache.commons.lang.StringUtils;
 import org.eclipse.smarthome.core.library.types.DecimalType;
 import org.eclipse.smarthome.core.library.types.OnOffType;
 import org.eclipse.smarthome.core.thing.ThingStatus;
 import org.eclipse.smarthome.core.thing.ThingStatusDetail;
+import org.eclipse.smarthome.core.types.State;
 import org.openhab.binding.atlona.internal.AtlonaHandlerCallback;
 import org.openhab.binding.atlona.internal.net.SocketSession;
+import org.openhab.binding.atlona.internal.net.SocketSessionLineListener;
 import org.openhab.binding.atlona.internal.net.SocketSessionListener;
+import org.openhab.binding.atlona.internal.opus.AtlonaOpusChannelIndex.Channel;
+import org.openhab.binding.atlona.internal.opus.AtlonaOpusCommand.Priority;
+import org.openhab.binding.atlona.internal.opus.AtlonaOpusCommand.Type;
 import org.openhab.binding.atlona.internal.pro3.AtlonaPro3Capabilities;
 import org.openhab.binding.atlona.internal.pro3.AtlonaPro3Config;
 import org.slf4j.Logger;
@@ -35,15 +45,89 @@ public class AtlonaOpusProtocolHandler {
     private final AtlonaOpusConfig config;
 
     /**
-     * The {@link AtlonaOpusCapabilities} of the PRO3 model
+     * The {@link AtlonaOpusCapabilities} of the OPUS model (replaced once the model has been detected)
      */
-    private final AtlonaOpusCapabilities capabilities;
+    private volatile AtlonaOpusCapabilities capabilities;
 
     /**
      * The {@link AtlonaOpusHandler} to call back to update status and state
      */
     private final AtlonaHandlerCallback callback;
 
+    /**
+     * The {@link AtlonaOpusChannelIndex} of the channel ids state is updated for (rebuilt with the capabilities)
+     */
+    private volatile AtlonaOpusChannelIndex channels;
+
+    /**
+     * The scheduler used to time out commands and the login
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The {@link AtlonaOpusCommandPipeline} all commands (after login) are sent through
+     */
+    private final AtlonaOpusCommandPipeline commands;
+
+    /**
+     * The {@link AtlonaOpusVolumeRamps} ramping the volume of audio ports
+     */
+    private final AtlonaOpusVolumeRamps ramps;
+
+    /**
+     * The {@link AtlonaOpusChannelFreshness} tracking when each channel's state was last confirmed by the switch
+     * (rebuilt with the capabilities)
+     */
+    private volatile AtlonaOpusChannelFreshness freshness;
+
+    /**
+     * The {@link AtlonaOpusMatrixModel} responses are diffed against so only changed state is emitted (rebuilt with
+     * the capabilities)
+     */
+    private volatile AtlonaOpusMatrixModel model;
+
+    /**
+     * The time (in milliseconds, 0 if none) the last unsolicited response (broadcast notification) was received
+     */
+    private volatile long lastBroadcast;
+
+    /**
+     * The time (in milliseconds) the last response (of any kind) was read from the session
+     */
+    private volatile long lastRead;
+
+    /**
+     * A state published before the switch has confirmed it
+     */
+    private static class PendingState {
+        private final Channel channel;
+        private final int portNbr;
+        private final String channelId;
+        private final State previous;
+
+        private PendingState(Channel channel, int portNbr, String channelId, State previous) {
+            this.channel = channel;
+            this.portNbr = portNbr;
+            this.channelId = channelId;
+            this.previous = previous;
+        }
+    }
+
+    /**
+     * The states published optimistically that await the switch's confirmation by channel id
+     */
+    private final Map<String, PendingState> pendingStates = new ConcurrentHashMap<>();
+
+    /**
+     * The {@link AtlonaOpusPresetCache} of the routing of each preset saved on the switch
+     */
+    private final AtlonaOpusPresetCache presets;
+
+    /**
+     * The login in progress (null if none)
+     */
+    private volatile LoginCallback activeLogin;
+
     /**
      * The model type identified by the switch. We save it for faster refreshes since it will not change
      */
@@ -96,29 +180,41 @@ public class AtlonaOpusProtocolHandler {
     private static final String RSP_LOGIN = "Login";
     private static final String RSP_PASSWORD = "Password";
 
-    private final Pattern powerStatusPattern = Pattern.compile("PW(\\w+)");
-    private final Pattern versionPattern = Pattern.compile("Firmware (.*)");
-    private final Pattern typePattern = Pattern.compile("AT-OPUS-(\\d+)M");
+    // PW(\w+)
+    private static final String RSP_POWER_PREFIX = "PW";
+    private static final String RSP_POWER_ON = "PWON";
+    private static final String RSP_POWER_OFF = "PWOFF";
+    // Firmware (.*)
+    private static final String RSP_VERSION_PREFIX = "Firmware ";
+    // AT-OPUS-(\d+)M
+    private static final String RSP_TYPE_PREFIX = "AT-OPUS-";
+    private static final char RSP_TYPE_SUFFIX = 'M';
     private static final String RSP_ALL = "All#";
     private static final String RSP_LOCK = "Lock";
     private static final String RSP_UNLOCK = "Unlock";
-    private final Pattern portStatusPattern = Pattern.compile("x(\\d+)AVx(\\d+),?+");
-    private final Pattern portPowerPattern = Pattern.compile("x(\\d+)\\$ (\\w+)");
-    private final Pattern portAllPattern = Pattern.compile("x(\\d+)All");
-    private final Pattern portVideoInputPattern = Pattern.compile("x(\\d+)V(\\d+)x");
-    private final Pattern portAudioInputPattern = Pattern.compile("x(\\d+)A(\\d+)x");
-    private final Pattern portMirrorPattern = Pattern.compile("MirrorHdmi(\\d+) (\\p{Alpha}+)(\\d*)");
-    private final Pattern portUnmirrorPattern = Pattern.compile("UnMirror(\\d+)");
-    private final Pattern volumePattern = Pattern.compile("VOUT(\\d+) (-?\\d+)");
-    private final Pattern volumeMutePattern = Pattern.compile("VOUTMute(\\d+) (\\w+)");
+    // x(\d+)AVx(\d+),?+ (repeated), x(\d+)V(\d+)x, x(\d+)A(\d+)x, x(\d+)\$ (\w+) and x(\d+)All
+    private static final char RSP_PORT_PREFIX = 'x';
+    private static final String RSP_PORT_SWITCH = "AVx";
+    private static final String RSP_PORT_ALL = "All";
+    // MirrorHdmi(\d+) (\p{Alpha}+)(\d*) and UnMirror(\d+)
+    private static final String RSP_PORT_MIRROR_PREFIX = "MirrorHdmi";
+    private static final String RSP_PORT_UNMIRROR_PREFIX = "UnMirror";
+    // VOUT(\d+) (-?\d+) and VOUTMute(\d+) (\w+)
+    private static final String RSP_VOLUME_PREFIX = "VOUT";
+    private static final String RSP_VOLUME_MUTE_PREFIX = "VOUTMute";
     private static final String RSP_IROFF = "IROFF";
     private static final String RSP_IRON = "IRON";
-    private final Pattern saveIoPattern = Pattern.compile("Save(\\d+)");
-    private final Pattern recallIoPattern = Pattern.compile("Recall(\\d+)");
-    private final Pattern clearIoPattern = Pattern.compile("Clear(\\d+)");
-    private final Pattern broadCastPattern = Pattern.compile("Broadcast (\\w+)");
+    // Save(\d+), Recall(\d+) and Clear(\d+)
+    private static final String RSP_SAVEIO_PREFIX = "Save";
+    private static final String RSP_RECALLIO_PREFIX = "Recall";
+    private static final String RSP_CLEARIO_PREFIX = "Clear";
+    // Broadcast (\w+)
+    private static final String RSP_BROADCAST_PREFIX = "Broadcast ";
     private static final String RSP_MATRIX_RESET = "Mreset";
 
+    private static final String RSP_ON = "on";
+    private static final String RSP_OFF = "off";
+
     // ------------------------------------------------------------------------------------------------
     // The following isn't part of the atlona protocol and is generated by us
     private static final String CMD_PING = "ping";
@@ -131,9 +227,11 @@ public class AtlonaOpusProtocolHandler {
      * @param config a non-null {@link AtlonaPro3Config}
      * @param capabilities a non-null {@link AtlonaPro3Capabilities}
      * @param callback a non-null {@link AtlonaHandlerCallback} to update state and status
+     * @param channels a non-null {@link AtlonaOpusChannelIndex} built from the capabilities
+     * @param scheduler a non-null scheduler used to time out commands and the login
      */
     AtlonaOpusProtocolHandler(SocketSession session, AtlonaOpusConfig config, AtlonaOpusCapabilities capabilities,
-            AtlonaHandlerCallback callback) {
+            AtlonaHandlerCallback callback, AtlonaOpusChannelIndex channels, ScheduledExecutorService scheduler) {
         if (session == null) {
             throw new IllegalArgumentException("session cannot be null");
         }
@@ -150,119 +248,95 @@ public class AtlonaOpusProtocolHandler {
             throw new IllegalArgumentException("callback cannot be null");
         }
 
+        if (channels == null) {
+            throw new IllegalArgumentException("channels cannot be null");
+        }
+
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler cannot be null");
+        }
+
         this.session = session;
         this.config = config;
         this.capabilities = capabilities;
         this.callback = callback;
+        this.channels = channels;
+        this.scheduler = scheduler;
+        this.commands = new AtlonaOpusCommandPipeline(session, scheduler, callback,
+                Math.max(1, config.getPipelineDepth()),
+                TimeUnit.SECONDS.toMillis(Math.max(1, config.getCommandTimeout())),
+                Math.max(0, config.getCoalesceWindow()),
+                new AtlonaOpusRateLimiter(Math.max(0, config.getCommandRate()), Math.max(1, config.getCommandBurst())));
+        this.commands.setThrottleListener((throttled, waitMillis) -> {
+            // the (current) channel index field - it's replaced when the capabilities are detected
+            final AtlonaOpusChannelIndex localChannels = this.channels;
+            callback.stateChanged(localChannels.getChannelId(Channel.THROTTLED),
+                    throttled ? OnOffType.ON : OnOffType.OFF);
+            if (!throttled) {
+                callback.stateChanged(localChannels.getChannelId(Channel.THROTTLEWAIT), new DecimalType(waitMillis));
+            }
+        });
+        this.freshness = new AtlonaOpusChannelFreshness(capabilities);
+        this.model = new AtlonaOpusMatrixModel(capabilities);
+        this.presets = new AtlonaOpusPresetCache(scheduler, AtlonaOpusPresetCache.getFile(channels.getThingUID()));
+        this.presets.load();
+        this.ramps = new AtlonaOpusVolumeRamps(scheduler, this::sendVolumeStep, Math.max(1, config.getRampInterval()));
     }
 
     /**
-     * Attempts to log into the switch when prompted by the switch. Please see code comments on the exact protocol for
-     * this.
+     * Attempts to log into the switch when prompted by the switch. The login is driven by the responses received (see
+     * {@link LoginCallback} for the exact protocol) so no thread is blocked waiting on the switch. Each step must be
+     * responded to within the command timeout and the whole login must complete within the login timeout.
      *
-     * @return a null if logged in successfully (or if switch didn't require login). Non-null if an exception occurred.
-     * @throws IOException an IO exception occurred during login
+     * @return a non-null future that completes with null if logged in successfully (or if switch didn't require login)
+     *         or a non-null reason if the login was refused. The future completes exceptionally if an exception
+     *         occurred (or a response wasn't received in time) during login. The future is cancelled if the protocol
+     *         handler is stopped (see {@link #stop()}) before the login completes.
      */
-    String login() throws Exception {
+    CompletableFuture<String> login() {
         logger.debug("Logging into atlona switch");
         // Void to make sure we retrieve them
         modelType = null;
         version = null;
 
-        NoDispatchingCallback callback = new NoDispatchingCallback();
-        session.addListener(callback);
-
-        // Burn the initial (empty) return
-        String response;
-        try {
-            response = callback.getResponse();
-            if (!response.equals("")) {
-                logger.info("Altona protocol violation - didn't start with an inital empty response: '{}'", response);
-            }
-        } catch (Exception e) {
-            // ignore - may not having given us an initial ""
-        }
-
-        // At this point - we are not sure if it's:
-        // 1) waiting for a command input
-        // or 2) has sent a "Login: " prompt
-        // By sending a string that doesn't exist as a command or user
-        // we can tell which by the response to the invalid command
-        session.sendCommand(NOTVALID_USER_OR_CMD);
-
-        // Command failed - Altona not configured with IPLogin - return success
-        response = callback.getResponse();
-        if (response.startsWith(RSP_FAILED)) {
-            logger.debug("Altona didn't require a login");
-            postLogin();
-            return null;
-        }
-
-        // We should have been presented wit a new "\r\nLogin: "
-        response = callback.getResponse();
-        if (!response.equals("")) {
-            logger.info("Altona protocol violation - didn't start with an inital empty response: '{}'", response);
-        }
-
-        // Get the new "Login: " prompt response
-        response = callback.getResponse();
-        if (response.equals(RSP_LOGIN)) {
-            if (config.getUserName() == null || config.getUserName().trim().length() == 0) {
-                return "Atlona PRO3 has enabled Telnet/IP Login but no username was provided in the configuration.";
-            }
-
-            // Send the username and wait for a ": " response
-            session.sendCommand(config.getUserName());
-        } else {
-            return "Altona protocol violation - wasn't initially a command failure or login prompt: " + response;
-        }
-
-        // We should have gotten the password response
-        response = callback.getResponse();
+        // Any commands (and logins) from a prior session will never be responded to
+        stop();
+        freshness.clear();
 
-        // Burn the empty response if we got one (
-        if (response.equals("")) {
-            response = callback.getResponse();
-        }
-        if (!response.equals(RSP_PASSWORD)) {
-            // If we got another login response, username wasn't valid
-            if (response.equals(RSP_LOGIN)) {
-                return "Username " + config.getUserName() + " is not a valid user on the atlona";
-            }
-            return "Altona protocol violation - invalid response to a login: " + response;
-        }
-
-        // Make sure we have a password
-        if (config.getPassword() == null || config.getPassword().trim().length() == 0) {
-            return "Atlona PRO3 has enabled Telnet/IP Login but no password was provided in the configuration.";
-        }
-
-        // Send the password
-        session.sendCommand(config.getPassword());
-        response = callback.getResponse();
+        // The matrix may have changed while we were disconnected
+        model.invalidate();
 
-        // At this point, we don't know if we received a
-        // 1) "\r\n" and waiting for a command
-        // or 2) "\r\nLogin: " if the password is invalid
-        // Send an invalid command to see if we get the failed command response
+        final LoginCallback login = new LoginCallback();
+        activeLogin = login;
+        session.addListener(login);
+        login.start();
+        return login.getResult();
+    }
 
-        // First make sure we had an empty response (the "\r\n" part)
-        if (!response.equals("")) {
-            logger.info("Altona protocol violation - not an empty response after password: '{}'", response);
+    /**
+     * Stops everything that could still write to the session - cancels the login in progress (if any), the pending and
+     * in-flight commands, the volume ramps and the optimistic states awaiting reconciliation. Should be called when the
+     * session is disconnected (and when the handler is disposed) so that no timeout, coalesced command or ramp step
+     * writes to the session afterwards.
+     */
+    void stop() {
+        final LoginCallback login = activeLogin;
+        activeLogin = null;
+        if (login != null) {
+            login.cancel();
         }
 
-        // Now send an invalid command
-        session.sendCommand(NOTVALID_USER_OR_CMD);
-
-        // If we get an invalid command response - we are logged in
-        response = callback.getResponse();
-        if (response.startsWith(RSP_FAILED)) {
-            postLogin();
-            return null;
-        }
+        commands.clear();
+        ramps.stop();
+        pendingStates.clear();
+    }
 
-        // Nope - password invalid
-        return "Password was invalid - please check your atlona setup";
+    /**
+     * Forgets the routing of every preset and deletes the file they are persisted to (see
+     * {@link AtlonaOpusPresetCache}). Called when the switch is removed.
+     */
+    void removePresets() {
+        presets.delete();
     }
 
     /**
@@ -270,13 +344,14 @@ public class AtlonaOpusProtocolHandler {
      */
     private void postLogin() {
         logger.debug("Atlona switch now connected");
+        lastRead = System.currentTimeMillis();
         session.clearListeners();
         session.addListener(new NormalResponseCallback());
         callback.statusChanged(ThingStatus.ONLINE, ThingStatusDetail.NONE, null);
 
         // Set broadcast to on to receive notifications when
         // routing changes (via the webpage, or presets or IR, etc)
-        sendCommand(CMD_BROADCAST_ON);
+        sendCommand(CMD_BROADCAST_ON, Type.BROADCAST, 0);
 
         // setup the most likely state of these switches (there is no protocol to get them)
         refreshAll();
@@ -293,91 +368,269 @@ public class AtlonaOpusProtocolHandler {
 
     /**
      * Pings the server with an (invalid) ping command to keep the connection alive
+     *
+     * @return a non-null future that completes when the switch responds
+     */
+    CompletableFuture<Void> ping() {
+        return sendCommand(CMD_PING, Type.PING, 0);
+    }
+
+    /**
+     * Pings the server with an (invalid) ping command to probe whether the switch is still there
+     *
+     * @param timeoutMillis the greater than 0 time (in milliseconds) to wait for the response
+     * @return a non-null future that completes when the switch responds (or fails with a TimeoutException)
+     */
+    CompletableFuture<Void> ping(long timeoutMillis) {
+        final AtlonaOpusCommand command = new AtlonaOpusCommand(CMD_PING, Type.PING, 0);
+        command.setResponseTimeout(timeoutMillis);
+        return commands.submit(command);
+    }
+
+    /**
+     * Returns the time of the last traffic in both directions - the older of the last response read and the last
+     * command written. The session is idle (in some direction) since that time.
+     *
+     * @return the time (in milliseconds) of the last traffic in both directions
      */
-    void ping() {
-        sendCommand(CMD_PING);
+    long getLastTraffic() {
+        return Math.min(lastRead, commands.getLastWrite());
     }
 
     /**
      * Refreshes the state from the switch itself. This will retrieve all the state (that we can get) from the switch.
+     * All the queries are pipelined - any query that fails (or times out) is logged with the query (and thus the port)
+     * that failed. The queries are written together (see {@link AtlonaOpusCommandPipeline#batch(Supplier)}) in the
+     * background lane - any background queries from a prior refresh that haven't been sent yet are cancelled first.
+     *
+     * @return a non-null future that completes when every query has been responded to (or has failed)
+     */
+    CompletableFuture<Void> refreshAll() {
+        return refreshAll(Priority.BACKGROUND);
+    }
+
+    /**
+     * Refreshes all the state from the switch (see {@link #refreshAll()}) in the given lane
+     *
+     * @param priority a non-null priority (lane) to send the queries in
+     * @return a non-null future that completes when every query has been responded to (or has failed)
      */
-    void refreshAll() {
+    CompletableFuture<Void> refreshAll(Priority priority) {
+        cancelBackground();
+        return commands.batch(priority, this::queueRefreshAll);
+    }
+
+    /**
+     * Queues all the refresh queries (see {@link #refreshAll()})
+     *
+     * @return a non-null future that completes when every query has been responded to (or has failed)
+     */
+    private CompletableFuture<Void> queueRefreshAll() {
         logger.debug("Refreshing matrix state");
+        final List<CompletableFuture<Void>> refreshes = new ArrayList<>();
+
         if (version == null) {
-            refreshVersion();
+            trackRefresh(refreshes, refreshVersion());
         } else {
             callback.setProperty(AtlonaOpusConstants.PROPERTY_VERSION, version);
         }
 
         if (modelType == null) {
-            refreshType();
+            trackRefresh(refreshes, refreshType());
         } else {
             callback.setProperty(AtlonaOpusConstants.PROPERTY_TYPE, modelType);
         }
 
-        refreshPower();
-        refreshAllPortStatuses();
+        trackRefresh(refreshes, refreshPower());
+        trackRefresh(refreshes, refreshAllPortStatuses());
 
         final int nbrPowerPorts = capabilities.getNbrPowerPorts();
         for (int x = 1; x <= nbrPowerPorts; x++) {
-            refreshPortPower(x);
+            trackRefresh(refreshes, refreshPortPower(x));
         }
 
         final int nbrAudioPorts = capabilities.getNbrAudioPorts();
         for (int x = 1; x <= nbrAudioPorts; x++) {
-            refreshVolumeStatus(x);
-            refreshVolumeMute(x);
+            trackRefresh(refreshes, refreshVolumeStatus(x));
+            trackRefresh(refreshes, refreshVolumeMute(x));
         }
 
         for (int x : capabilities.getHdmiPorts()) {
-            refreshPortStatus(x);
+            trackRefresh(refreshes, refreshPortStatus(x));
+        }
+
+        return CompletableFuture.allOf(refreshes.toArray(new CompletableFuture<?>[refreshes.size()]));
+    }
+
+    /**
+     * Refreshes only the state that the switch has not confirmed (by a query response or a broadcast notification)
+     * within the configured state TTL. Used in push mode where broadcast notifications are the source of truth - a
+     * single "Status" query is used if any output port is stale since it covers all of them. Like
+     * {@link #refreshAll()} the queries are sent in the background lane.
+     *
+     * @return a non-null future that completes when every query has been responded to (or has failed)
+     */
+    CompletableFuture<Void> refreshStale() {
+        cancelBackground();
+        return commands.batch(Priority.BACKGROUND, this::queueRefreshStale);
+    }
+
+    /**
+     * Queues the refresh queries made by the given runnable in the refresh lane (ahead of background polling but behind
+     * user commands) and writes them together
+     *
+     * @param refreshes a non-null runnable calling the refresh methods
+     */
+    void refresh(Runnable refreshes) {
+        if (refreshes == null) {
+            throw new IllegalArgumentException("refreshes cannot be null");
+        }
+        commands.batch(Priority.REFRESH, () -> {
+            refreshes.run();
+            return null;
+        });
+    }
+
+    /**
+     * Cancels the background queries that haven't been sent yet - they are superseded by the refresh being queued
+     */
+    private void cancelBackground() {
+        final int cancelled = commands.cancel(Priority.BACKGROUND);
+        if (cancelled > 0) {
+            logger.debug("Cancelled {} unsent background queries", cancelled);
+        }
+    }
+
+    /**
+     * Queues the refresh queries for stale state (see {@link #refreshStale()})
+     *
+     * @return a non-null future that completes when every query has been responded to (or has failed)
+     */
+    private CompletableFuture<Void> queueRefreshStale() {
+        final long now = System.currentTimeMillis();
+        final long ttlMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getStateTtl()));
+        final List<CompletableFuture<Void>> refreshes = new ArrayList<>();
+
+        if (version == null) {
+            trackRefresh(refreshes, refreshVersion());
+        }
+
+        if (modelType == null) {
+            trackRefresh(refreshes, refreshType());
+        }
+
+        if (freshness.isStale(Type.POWER, 0, now, ttlMillis)) {
+            trackRefresh(refreshes, refreshPower());
+        }
+
+        final int nbrPowerPorts = capabilities.getNbrPowerPorts();
+        boolean outputsStale = false;
+        for (int x = 1; x <= nbrPowerPorts && !outputsStale; x++) {
+            outputsStale = freshness.isStale(Type.PORT_OUTPUT, x, now, ttlMillis);
+        }
+        if (outputsStale) {
+            trackRefresh(refreshes, refreshAllPortStatuses());
+        }
+
+        for (int x = 1; x <= nbrPowerPorts; x++) {
+            if (freshness.isStale(Type.PORT_POWER, x, now, ttlMillis)) {
+                trackRefresh(refreshes, refreshPortPower(x));
+            }
+        }
+
+        final int nbrAudioPorts = capabilities.getNbrAudioPorts();
+        for (int x = 1; x <= nbrAudioPorts; x++) {
+            if (freshness.isStale(Type.VOLUME, x, now, ttlMillis)) {
+                trackRefresh(refreshes, refreshVolumeStatus(x));
+            }
+            if (freshness.isStale(Type.VOLUME_MUTE, x, now, ttlMillis)) {
+                trackRefresh(refreshes, refreshVolumeMute(x));
+            }
+        }
+
+        if (!outputsStale) {
+            for (int x : capabilities.getHdmiPorts()) {
+                if (freshness.isStale(Type.PORT_OUTPUT, x, now, ttlMillis)) {
+                    trackRefresh(refreshes, refreshPortStatus(x));
+                }
+            }
         }
+
+        logger.debug("Refreshing {} stale queries", refreshes.size());
+        return CompletableFuture.allOf(refreshes.toArray(new CompletableFuture<?>[refreshes.size()]));
+    }
+
+    /**
+     * Helper method to add a refresh query to the list of queries and log the query if it fails
+     *
+     * @param refreshes a non-null list of refresh queries
+     * @param refresh a non-null refresh query future
+     */
+    private void trackRefresh(List<CompletableFuture<Void>> refreshes, CompletableFuture<Void> refresh) {
+        refreshes.add(refresh.whenComplete((r, e) -> {
+            if (e != null) {
+                logger.debug("Refresh query failed: {}", e.getMessage());
+            }
+        }));
     }
 
     /**
      * Sets the power to the switch
      *
      * @param on true if on, false otherwise
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void setPower(boolean on) {
-        sendCommand(on ? CMD_POWERON : CMD_POWEROFF);
+    CompletableFuture<Void> setPower(boolean on) {
+        final PendingState pending = publishExpected(Channel.POWER, 0, on ? OnOffType.ON : OnOffType.OFF);
+        return reconcile(sendCommand(on ? CMD_POWERON : CMD_POWEROFF, Type.POWER, 0), pending);
     }
 
     /**
      * Queries the switch about it's power state
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void refreshPower() {
-        sendCommand(CMD_POWER_STATUS);
+    CompletableFuture<Void> refreshPower() {
+        return sendCommand(CMD_POWER_STATUS, Type.POWER, 0);
     }
 
     /**
      * Queries the switch about it's version (firmware)
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void refreshVersion() {
-        sendCommand(CMD_VERSION);
+    CompletableFuture<Void> refreshVersion() {
+        return sendCommand(CMD_VERSION, Type.VERSION, 0);
     }
 
     /**
      * Queries the switch about it's type (model)
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void refreshType() {
-        sendCommand(CMD_TYPE);
+    CompletableFuture<Void> refreshType() {
+        return sendCommand(CMD_TYPE, Type.TYPE, 0);
     }
 
     /**
      * Sets whether the front panel is locked or not
      *
      * @param locked true if locked, false otherwise
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void setPanelLock(boolean locked) {
-        sendCommand(locked ? CMD_PANELLOCK : CMD_PANELUNLOCK);
+    CompletableFuture<Void> setPanelLock(boolean locked) {
+        return sendCommand(locked ? CMD_PANELLOCK : CMD_PANELUNLOCK, Type.PANEL_LOCK, 0);
     }
 
     /**
      * Resets all ports back to their default state.
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void resetAllPorts() {
-        sendCommand(CMD_PORT_RESETALL);
+    CompletableFuture<Void> resetAllPorts() {
+        return sendCommand(CMD_PORT_RESETALL, Type.PORT_RESET, 0);
     }
 
     /**
@@ -385,52 +638,79 @@ public class AtlonaOpusProtocolHandler {
      *
      * @param portNbr a greater than zero port number
      * @param on true if powered.
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void setPortPower(int portNbr, boolean on) {
+    CompletableFuture<Void> setPortPower(int portNbr, boolean on) {
         if (portNbr <= 0) {
             throw new IllegalArgumentException("portNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_PORT_POWER_FORMAT, portNbr, on ? "on" : "off"));
+        final PendingState pending = publishExpected(Channel.PORTPOWER, portNbr, on ? OnOffType.ON : OnOffType.OFF);
+        return reconcile(
+                sendCommand(String.format(CMD_PORT_POWER_FORMAT, portNbr, on ? "on" : "off"), Type.PORT_POWER, portNbr),
+                pending);
     }
 
     /**
      * Refreshes whether the specified port is powered (i.e. outputing).
      *
      * @param portNbr a greater than zero port number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void refreshPortPower(int portNbr) {
+    CompletableFuture<Void> refreshPortPower(int portNbr) {
         if (portNbr <= 0) {
             throw new IllegalArgumentException("portNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_PORT_POWER_FORMAT, portNbr, "sta"));
+        return sendCommand(String.format(CMD_PORT_POWER_FORMAT, portNbr, "sta"), Type.PORT_POWER, portNbr);
     }
 
     /**
-     * Sets all the output ports to the specified input port.
+     * Sets all the output ports to the specified input port. The routing of the output ports is forgotten (so the
+     * statuses refreshed when the switch responds are always emitted).
      *
      * @param portNbr a greater than zero port number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void setPortAll(int portNbr) {
+    CompletableFuture<Void> setPortAll(int portNbr) {
         if (portNbr <= 0) {
             throw new IllegalArgumentException("portNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_PORT_ALL_FORMAT, portNbr));
+        final List<PendingState> pending = new ArrayList<>();
+        final DecimalType expected = new DecimalType(portNbr);
+        final int nbrPowerPorts = capabilities.getNbrPowerPorts();
+        for (int outPortNbr = 1; outPortNbr <= nbrPowerPorts; outPortNbr++) {
+            pending.add(publishExpected(Channel.PORTOUTPUT, outPortNbr, expected));
+            model.invalidateRouting(outPortNbr);
+        }
+        final CompletableFuture<Void> sent = sendCommand(String.format(CMD_PORT_ALL_FORMAT, portNbr), Type.PORT_ALL,
+                portNbr);
+        for (PendingState state : pending) {
+            reconcile(sent, state);
+        }
+        return sent;
     }
 
     /**
-     * Sets the input port number to the specified output port number.
+     * Sets the input port number to the specified output port number. Queued (unsent) routing changes for the same
+     * output port are coalesced with this one.
      *
      * @param inPortNbr a greater than zero port number
      * @param outPortNbr a greater than zero port number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void setPortSwitch(int inPortNbr, int outPortNbr) {
+    CompletableFuture<Void> setPortSwitch(int inPortNbr, int outPortNbr) {
         if (inPortNbr <= 0) {
             throw new IllegalArgumentException("inPortNbr must be greater than 0");
         }
         if (outPortNbr <= 0) {
             throw new IllegalArgumentException("outPortNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_PORT_SWITCH_FORMAT, inPortNbr, outPortNbr));
+        final PendingState pending = publishExpected(Channel.PORTOUTPUT, outPortNbr, new DecimalType(inPortNbr));
+        return reconcile(sendCommand(String.format(CMD_PORT_SWITCH_FORMAT, inPortNbr, outPortNbr), Type.PORT_OUTPUT,
+                outPortNbr, true), pending);
     }
 
     /**
@@ -438,8 +718,10 @@ public class AtlonaOpusProtocolHandler {
      *
      * @param hdmiPortNbr a greater than zero port number
      * @param outPortNbr a greater than zero port number
+     *
+     * @return a non-null future that completes when the switch responds (or immediately if nothing was sent)
      */
-    void setPortMirror(int hdmiPortNbr, int outPortNbr) {
+    CompletableFuture<Void> setPortMirror(int hdmiPortNbr, int outPortNbr) {
         logger.info("Trying to mirror input port {} to output port {}", hdmiPortNbr, outPortNbr);
         // if (hdmiPortNbr <= 0) {
         // throw new IllegalArgumentException("hdmiPortNbr must be greater than 0");
@@ -449,9 +731,10 @@ public class AtlonaOpusProtocolHandler {
         }
 
         if (outPortNbr > 0 && outPortNbr < 5) {
-            sendCommand(String.format(CMD_PORT_ALL_FORMAT, outPortNbr));
+            return sendCommand(String.format(CMD_PORT_ALL_FORMAT, outPortNbr), Type.PORT_ALL, outPortNbr);
         } else {
             logger.info("Setting All ports to designated Input {}", outPortNbr);
+            return CompletableFuture.completedFuture(null);
         }
     }
 
@@ -460,57 +743,110 @@ public class AtlonaOpusProtocolHandler {
      *
      * @param hdmiPortNbr a greater than zero port number
      * @param outPortNbr a greater than zero port number
+     *
+     * @return a non-null future that completes when the switch responds (or immediately if nothing was sent)
      */
-    void removePortMirror(int hdmiPortNbr) {
+    CompletableFuture<Void> removePortMirror(int hdmiPortNbr) {
         if (hdmiPortNbr <= 0) {
             throw new IllegalArgumentException("hdmiPortNbr must be greater than 0");
         }
 
         if (capabilities.getHdmiPorts().contains(hdmiPortNbr)) {
-            sendCommand(String.format(CMD_PORT_UNMIRROR_FORMAT, hdmiPortNbr));
+            return sendCommand(String.format(CMD_PORT_UNMIRROR_FORMAT, hdmiPortNbr), Type.PORT_UNMIRROR, hdmiPortNbr);
         } else {
             logger.info("Trying to remove port mirroring on a non-hdmi port: {}", hdmiPortNbr);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    /**
+     * Sets the volume level on the specified audio port. Queued (unsent) volume changes for the same audio port are
+     * coalesced with this one. Any volume ramp of the audio port is cancelled.
+     *
+     * @param portNbr a greater than zero port number
+     * @param level a volume level in decibels (must range from -79 to +15)
+     *
+     * @return a non-null future that completes when the switch responds
+     */
+    CompletableFuture<Void> setVolume(int portNbr, double level) {
+        if (portNbr <= 0) {
+            throw new IllegalArgumentException("portNbr must be greater than 0");
+        }
+        if (level < -79 || level > 15) {
+            throw new IllegalArgumentException("level must be between -79 to +15");
         }
+        ramps.cancel(portNbr);
+        final PendingState pending = publishExpected(Channel.VOLUME, portNbr, new DecimalType(level));
+        return reconcile(sendCommand(String.format(CMD_VOLUME_FORMAT, portNbr, level), Type.VOLUME, portNbr, true),
+                pending);
     }
 
     /**
-     * Sets the volume level on the specified audio port.
+     * Ramps the volume level of the specified audio port from its current level to the level over the duration (see
+     * {@link AtlonaOpusVolumeRamps}). If the current level isn't known, the level is set immediately. A ramp already in
+     * progress for the audio port is replaced (continuing from where it got to).
      *
      * @param portNbr a greater than zero port number
      * @param level a volume level in decibels (must range from -79 to +15)
+     * @param durationMillis the greater than or equal to 0 duration (in milliseconds) of the ramp
+     * @param curve a non-null curve the ramp follows
+     *
+     * @return a non-null future that completes when the switch responds to the last step of the ramp
      */
-    void setVolume(int portNbr, double level) {
+    CompletableFuture<Void> rampVolume(int portNbr, double level, long durationMillis,
+            AtlonaOpusVolumeRamps.Curve curve) {
         if (portNbr <= 0) {
             throw new IllegalArgumentException("portNbr must be greater than 0");
         }
         if (level < -79 || level > 15) {
             throw new IllegalArgumentException("level must be between -79 to +15");
         }
-        sendCommand(String.format(CMD_VOLUME_FORMAT, portNbr, level));
+        final double current = model.getVolume(portNbr);
+        if (Double.isNaN(current)) {
+            logger.debug("Volume of port {} is unknown - setting it to {} without a ramp", portNbr, level);
+            return ramps.start(portNbr, level, level, 0, curve);
+        }
+        return ramps.start(portNbr, current, level, durationMillis, curve);
+    }
+
+    /**
+     * Sends a step of a volume ramp (not coalesced - the {@link AtlonaOpusVolumeRamps} only sends a step once the
+     * previous step has been responded to)
+     *
+     * @param portNbr a greater than zero port number
+     * @param level a volume level in decibels
+     * @return a non-null future that completes when the switch responds
+     */
+    private CompletableFuture<Void> sendVolumeStep(int portNbr, double level) {
+        return sendCommand(String.format(CMD_VOLUME_FORMAT, portNbr, level), Type.VOLUME, portNbr);
     }
 
     /**
      * Refreshes the volume level for the given audio port.
      *
      * @param portNbr a greater than zero port number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void refreshVolumeStatus(int portNbr) {
+    CompletableFuture<Void> refreshVolumeStatus(int portNbr) {
         if (portNbr <= 0) {
             throw new IllegalArgumentException("portNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_VOLUME_FORMAT, portNbr, "sta"));
+        return sendCommand(String.format(CMD_VOLUME_FORMAT, portNbr, "sta"), Type.VOLUME, portNbr);
     }
 
     /**
      * Refreshes the specified hdmi port's mirroring status
      *
      * @param hdmiPortNbr a greater than zero hdmi port number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void refreshPortMirror(int hdmiPortNbr) {
+    CompletableFuture<Void> refreshPortMirror(int hdmiPortNbr) {
         if (hdmiPortNbr <= 0) {
             throw new IllegalArgumentException("hdmiPortNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_PORT_MIRROR_STATUS_FORMAT, hdmiPortNbr));
+        return sendCommand(String.format(CMD_PORT_MIRROR_STATUS_FORMAT, hdmiPortNbr), Type.PORT_MIRROR, hdmiPortNbr);
     }
 
     /**
@@ -518,642 +854,1386 @@ public class AtlonaOpusProtocolHandler {
      *
      * @param portNbr a greater than zero port number
      * @param mute true to mute, false to unmute
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void setVolumeMute(int portNbr, boolean mute) {
+    CompletableFuture<Void> setVolumeMute(int portNbr, boolean mute) {
         if (portNbr <= 0) {
             throw new IllegalArgumentException("portNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_VOLUME_MUTE_FORMAT, portNbr, mute ? "on" : "off"));
+        final PendingState pending = publishExpected(Channel.VOLUME_MUTE, portNbr, mute ? OnOffType.ON : OnOffType.OFF);
+        return reconcile(sendCommand(String.format(CMD_VOLUME_MUTE_FORMAT, portNbr, mute ? "on" : "off"),
+                Type.VOLUME_MUTE, portNbr), pending);
     }
 
     /**
      * Refreshes the volume mute for the given audio port.
      *
      * @param portNbr a greater than zero port number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void refreshVolumeMute(int portNbr) {
+    CompletableFuture<Void> refreshVolumeMute(int portNbr) {
         if (portNbr <= 0) {
             throw new IllegalArgumentException("portNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_VOLUME_MUTE_FORMAT, portNbr, "sta"));
+        return sendCommand(String.format(CMD_VOLUME_MUTE_FORMAT, portNbr, "sta"), Type.VOLUME_MUTE, portNbr);
     }
 
     /**
      * Turn on/off the front panel IR.
      *
      * @param on true for on, false otherwise
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void setIrOn(boolean on) {
-        sendCommand(on ? CMD_IRON : CMD_IROFF);
+    CompletableFuture<Void> setIrOn(boolean on) {
+        return sendCommand(on ? CMD_IRON : CMD_IROFF, Type.IR, 0);
     }
 
     /**
      * Refreshes the input port setting on the specified output port.
      *
      * @param portNbr a greater than zero port number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void refreshPortStatus(int portNbr) {
+    CompletableFuture<Void> refreshPortStatus(int portNbr) {
         logger.info("Refreshing the status for port {}", portNbr);
         if (portNbr <= 0) {
             throw new IllegalArgumentException("portNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_PORT_STATUS_FORMAT, portNbr));
+        return sendCommand(String.format(CMD_PORT_STATUS_FORMAT, portNbr), Type.PORT_OUTPUT, portNbr);
     }
 
     /**
      * Refreshes all of the input port settings for all of the output ports.
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    private void refreshAllPortStatuses() {
+    CompletableFuture<Void> refreshAllPortStatuses() {
         logger.info("Refreshing the status for all ports...");
-        sendCommand(CMD_PORT_STATUS);
+        return sendCommand(CMD_PORT_STATUS, Type.PORT_OUTPUT, 0);
     }
 
     /**
      * Saves the current Input/Output scheme to the specified preset number.
      *
      * @param presetNbr a greater than 0 preset number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void saveIoSettings(int presetNbr) {
+    CompletableFuture<Void> saveIoSettings(int presetNbr) {
         if (presetNbr <= 0) {
             throw new IllegalArgumentException("presetNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_SAVEIO_FORMAT, presetNbr));
+        return sendCommand(String.format(CMD_SAVEIO_FORMAT, presetNbr), Type.SAVE_IO, presetNbr);
     }
 
     /**
      * Recalls the Input/Output scheme for the specified preset number.
      *
      * @param presetNbr a greater than 0 preset number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void recallIoSettings(int presetNbr) {
+    CompletableFuture<Void> recallIoSettings(int presetNbr) {
         if (presetNbr <= 0) {
             throw new IllegalArgumentException("presetNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_RECALLIO_FORMAT, presetNbr));
+        return sendCommand(String.format(CMD_RECALLIO_FORMAT, presetNbr), Type.RECALL_IO, presetNbr);
     }
 
     /**
      * Clears the Input/Output scheme for the specified preset number.
      *
      * @param presetNbr a greater than 0 preset number
+     *
+     * @return a non-null future that completes when the switch responds
      */
-    void clearIoSettings(int presetNbr) {
+    CompletableFuture<Void> clearIoSettings(int presetNbr) {
         if (presetNbr <= 0) {
             throw new IllegalArgumentException("presetNbr must be greater than 0");
         }
-        sendCommand(String.format(CMD_CLEARIO_FORMAT, presetNbr));
+        return sendCommand(String.format(CMD_CLEARIO_FORMAT, presetNbr), Type.CLEAR_IO, presetNbr);
     }
 
     /**
-     * Resets the matrix back to defaults.
+     * Applies the scene - only the commands needed to get from the current (known) state to the scene are sent. The
+     * routing is planned by {@link AtlonaOpusScene#planRouting(int[], int, Map)} (using "x%dAll" or a preset when
+     * cheaper) and power, volume and mute commands are only sent for ports whose known state differs. Unknown state
+     * always differs. All the commands go out together as interactive commands.
+     *
+     * @param scene a non-null scene
+     * @return a non-null future that completes when every command has been responded to (or fails if any failed)
      */
-    void resetMatrix() {
-        sendCommand(CMD_MATRIX_RESET);
+    CompletableFuture<Void> applyScene(AtlonaOpusScene scene) {
+        if (scene == null) {
+            throw new IllegalArgumentException("scene cannot be null");
+        }
+
+        final AtlonaOpusMatrixModel localModel = model;
+        final AtlonaOpusScene.RoutingPlan plan = scene.planRouting(localModel.getRouting(),
+                capabilities.getMaxPortNbr(), presets.getAll());
+
+        return commands.batch(Priority.INTERACTIVE, () -> {
+            final List<CompletableFuture<Void>> sent = new ArrayList<>();
+            if (plan.getPresetNbr() > 0) {
+                sent.add(recallIoSettings(plan.getPresetNbr()));
+            }
+            if (plan.getAllInPortNbr() > 0) {
+                sent.add(setPortAll(plan.getAllInPortNbr()));
+            }
+            for (Map.Entry<Integer, Integer> route : plan.getRoutes().entrySet()) {
+                sent.add(sendCommand(String.format(CMD_PORT_SWITCH_FORMAT, route.getValue(), route.getKey()),
+                        Type.PORT_OUTPUT, route.getKey()));
+            }
+
+            for (Map.Entry<Integer, Boolean> power : scene.getPortPower().entrySet()) {
+                if (localModel.getPortPower(power.getKey()) != (power.getValue() ? 1 : 0)) {
+                    sent.add(setPortPower(power.getKey(), power.getValue()));
+                }
+            }
+
+            for (Map.Entry<Integer, Double> level : scene.getVolume().entrySet()) {
+                ramps.cancel(level.getKey());
+                if (Double.compare(localModel.getVolume(level.getKey()), level.getValue()) != 0) {
+                    sent.add(sendCommand(String.format(CMD_VOLUME_FORMAT, level.getKey(), level.getValue()),
+                            Type.VOLUME, level.getKey()));
+                }
+            }
+
+            for (Map.Entry<Integer, Boolean> mute : scene.getVolumeMute().entrySet()) {
+                if (localModel.getVolumeMute(mute.getKey()) != (mute.getValue() ? 1 : 0)) {
+                    sent.add(setVolumeMute(mute.getKey(), mute.getValue()));
+                }
+            }
+
+            logger.debug("Applying scene with {} commands", sent.size());
+            return CompletableFuture.allOf(sent.toArray(new CompletableFuture<?>[sent.size()]));
+        });
     }
 
     /**
-     * Sends the command and puts the thing into {@link ThingStatus#OFFLINE} if an IOException occurs
+     * Resets the matrix back to defaults.
      *
-     * @param command a non-null, non-empty command to send
+     * @return a non-null future that completes when the switch responds
      */
-    private void sendCommand(String command) {
-        if (command == null) {
-            throw new IllegalArgumentException("command cannot be null");
-        }
-        if (command.trim().length() == 0) {
-            throw new IllegalArgumentException("command cannot be empty");
-        }
-        try {
-            session.sendCommand(command);
-        } catch (IOException e) {
-            callback.statusChanged(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
-                    "Exception occurred sending to Atlona: " + e);
-        }
+    CompletableFuture<Void> resetMatrix() {
+        return sendCommand(CMD_MATRIX_RESET, Type.MATRIX_RESET, 0);
     }
 
     /**
-     * Handles the switch power response. The first matching group should be "on" or "off"
+     * Sends the command through the {@link AtlonaOpusCommandPipeline}. The pipeline will put the thing into
+     * {@link ThingStatus#OFFLINE} if an IOException occurs.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param command a non-null, non-empty command to send
+     * @param type a non-null response type the command expects
+     * @param portNbr the port number the response is expected for (or 0 if none)
+     * @return a non-null future that completes when the switch responds
      */
-    private void handlePowerResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
-        }
-        if (m.groupCount() == 1) {
-            logger.info("Handling Power Response {}", resp);
-            switch (m.group(1)) {
-                case "ON":
-                    callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_PRIMARY,
-                            AtlonaOpusConstants.CHANNEL_POWER), OnOffType.ON);
-                    break;
-                case "OFF":
-                    callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_PRIMARY,
-                            AtlonaOpusConstants.CHANNEL_POWER), OnOffType.OFF);
-                    break;
-                default:
-                    logger.warn("Invalid power response: '{}'", resp);
-            }
-        } else {
-            logger.warn("Invalid power response: '{}'", resp);
-        }
+    private CompletableFuture<Void> sendCommand(String command, Type type, int portNbr) {
+        return sendCommand(command, type, portNbr, false);
     }
 
     /**
-     * Handles the version (firmware) response. The first matching group should be the version
+     * Sends the command through the {@link AtlonaOpusCommandPipeline}, optionally allowing the command to be coalesced
+     * with queued (unsent) commands for the same response type and port number.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param command a non-null, non-empty command to send
+     * @param type a non-null response type the command expects
+     * @param portNbr the port number the response is expected for (or 0 if none)
+     * @param coalesce true if the command should replace any queued command for the same type and port number
+     * @return a non-null future that completes when the switch responds
      */
-    private void handleVersionResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
+    private CompletableFuture<Void> sendCommand(String command, Type type, int portNbr, boolean coalesce) {
+        if (command == null) {
+            throw new IllegalArgumentException("command cannot be null");
         }
-        if (m.groupCount() == 1) {
-            version = m.group(1);
-            callback.setProperty(AtlonaOpusConstants.PROPERTY_VERSION, version);
-        } else {
-            logger.warn("Invalid version response: '{}'", resp);
+        if (command.trim().length() == 0) {
+            throw new IllegalArgumentException("command cannot be empty");
         }
+        return commands.submit(new AtlonaOpusCommand(command, type, portNbr, coalesce));
     }
 
     /**
-     * Handles the type (model) response. The first matching group should be the type.
+     * Forgets the state the {@link AtlonaOpusMatrixModel} holds for the channel so that the next response for it is
+     * emitted even if unchanged. Should be called when the channel is explicitly refreshed.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param channel a non-null channel
+     * @param portNbr the port number of the channel (ignored for primary channels)
      */
-    private void handleTypeResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
-        }
-        if (m.groupCount() == 1) {
-            modelType = resp;
-            callback.setProperty(AtlonaOpusConstants.PROPERTY_TYPE, modelType);
-        } else {
-            logger.warn("Invalid Type response: '{}'", resp);
+    void forgetState(Channel channel, int portNbr) {
+        switch (channel) {
+            case PORTOUTPUT:
+                model.invalidateRouting(portNbr);
+                break;
+            case PORTPOWER:
+                model.invalidatePortPower(portNbr);
+                break;
+            case VOLUME:
+                model.invalidateVolume(portNbr);
+                break;
+            case VOLUME_MUTE:
+                model.invalidateVolumeMute(portNbr);
+                break;
+            default:
+                // not modeled - always emitted
+                break;
         }
     }
 
     /**
-     * Handles the panel lock response. The response is only on or off.
+     * Publishes the state a command is expected to result in (before sending it) so the change shows immediately. The
+     * state is pending until {@link #reconcile(CompletableFuture, PendingState)} sees the command's outcome.
      *
-     * @param resp the possibly null, possibly empty actual response
+     * @param channel a non-null channel
+     * @param portNbr the port number of the channel (ignored for primary channels)
+     * @param expected the non-null expected state
+     * @return the non-null pending state
      */
-    private void handlePanelLockResponse(String resp) {
-        callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_PRIMARY,
-                AtlonaOpusConstants.CHANNEL_PANELLOCK), RSP_LOCK.equals(resp) ? OnOffType.ON : OnOffType.OFF);
+    private PendingState publishExpected(Channel channel, int portNbr, State expected) {
+        final String channelId = channels.getChannelId(channel, portNbr);
+        final PendingState pending = new PendingState(channel, portNbr, channelId, getModelState(channel, portNbr));
+        pendingStates.put(channelId, pending);
+        callback.stateChanged(channelId, expected);
+        return pending;
     }
 
     /**
-     * Handles the port power response. The first two groups should be the port nbr and either "on" or "off"
+     * Reconciles the pending state with the outcome of the command (unless a newer pending state has been published
+     * for the channel since). When the switch responds, the state it confirmed (if modeled) is published - correcting
+     * the channel if the switch did something other than expected. If the command failed (timed out or was rejected),
+     * the channel is rolled back to its last confirmed state and re-queried.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param sent the non-null future of the command
+     * @param pending the non-null pending state published for the command
+     * @return the future of the command
      */
-    private void handlePortPowerResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
-        }
-        if (m.groupCount() == 2) {
-            try {
-                int portNbr = Integer.parseInt(m.group(1));
-                switch (m.group(2)) {
-                    case "on":
-                        callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_PORT,
-                                portNbr, AtlonaOpusConstants.CHANNEL_PORTPOWER), OnOffType.ON);
-                        break;
-                    case "off":
-                        callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_PORT,
-                                portNbr, AtlonaOpusConstants.CHANNEL_PORTPOWER), OnOffType.OFF);
-                        break;
-                    default:
-                        logger.warn("Invalid port power response: '{}'", resp);
+    private CompletableFuture<Void> reconcile(CompletableFuture<Void> sent, PendingState pending) {
+        sent.whenComplete((r, e) -> {
+            if (!pendingStates.remove(pending.channelId, pending)) {
+                // superseded by a newer pending state (or a new session)
+                return;
+            }
+            if (e == null) {
+                final State confirmed = getModelState(pending.channel, pending.portNbr);
+                if (confirmed != null) {
+                    callback.stateChanged(pending.channelId, confirmed);
                 }
-            } catch (NumberFormatException e) {
-                logger.warn("Invalid port power (can't parse number): '{}'", resp);
+            } else if (!(e instanceof CancellationException)) {
+                logger.debug("Rolling back {} and re-querying it: {}", pending.channelId, e.getMessage());
+                if (pending.previous != null) {
+                    callback.stateChanged(pending.channelId, pending.previous);
+                }
+                forgetState(pending.channel, pending.portNbr);
+                refresh(() -> requery(pending.channel, pending.portNbr));
             }
-        } else {
-            logger.warn("Invalid port power response: '{}'", resp);
-        }
+        });
+        return sent;
     }
 
     /**
-     * Handles the port all response. Simply calls {@link #refreshAllPortStatuses()}
+     * Returns the state of the channel confirmed by the switch (as held by the {@link AtlonaOpusMatrixModel})
      *
-     * @param resp ignored
+     * @param channel a non-null channel
+     * @param portNbr the port number of the channel
+     * @return the state or null if unknown (or the channel isn't modeled)
      */
-    private void handlePortAllResponse(String resp) {
-        refreshAllPortStatuses();
+    private State getModelState(Channel channel, int portNbr) {
+        switch (channel) {
+            case PORTOUTPUT:
+                final int inPortNbr = model.getRouting(portNbr);
+                return inPortNbr < 0 ? null : new DecimalType(inPortNbr);
+            case PORTPOWER:
+                final int power = model.getPortPower(portNbr);
+                return power < 0 ? null : power == 1 ? OnOffType.ON : OnOffType.OFF;
+            case VOLUME:
+                final double level = model.getVolume(portNbr);
+                return Double.isNaN(level) ? null : new DecimalType(level);
+            case VOLUME_MUTE:
+                final int mute = model.getVolumeMute(portNbr);
+                return mute < 0 ? null : mute == 1 ? OnOffType.ON : OnOffType.OFF;
+            default:
+                return null;
+        }
     }
 
     /**
-     * Handles the port output response. This matcher can have multiple groups separated by commas. Find each group and
-     * that group should have two groups within - an input port nbr and an output port number
+     * Queries the switch for the state of the channel
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param channel a non-null channel
+     * @param portNbr the port number of the channel
      */
-    private void handlePortOutputResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
+    private void requery(Channel channel, int portNbr) {
+        switch (channel) {
+            case POWER:
+                refreshPower();
+                break;
+            case PORTOUTPUT:
+                refreshPortStatus(portNbr);
+                break;
+            case PORTPOWER:
+                refreshPortPower(portNbr);
+                break;
+            case VOLUME:
+                refreshVolumeStatus(portNbr);
+                break;
+            case VOLUME_MUTE:
+                refreshVolumeMute(portNbr);
+                break;
+            default:
+                break;
         }
+    }
 
-        m.reset();
-        while (m.find()) {
-            try {
-                int inPort = Integer.parseInt(m.group(1));
-                int outPort = Integer.parseInt(m.group(2));
-                logger.info("Input port {} + Output Port {}", inPort, outPort);
-                callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_PORT, outPort,
-                        AtlonaOpusConstants.CHANNEL_PORTOUTPUT), new DecimalType(inPort));
-            } catch (NumberFormatException e) {
-                logger.warn("Invalid port output response (can't parse number): '{}'", resp);
-            }
+    /**
+     * Called when a response has been handled. Completes the command waiting for the response (if any) and records
+     * that the state for the response has been confirmed by the switch. A response no command was waiting for is a
+     * broadcast notification.
+     *
+     * @param type a non-null response type
+     * @param portNbr the port number of the response (or 0 if none)
+     */
+    private void responseHandled(Type type, int portNbr) {
+        freshness.confirm(type, portNbr, System.currentTimeMillis());
+        responseCompleted(type, portNbr);
+    }
+
+    /**
+     * Called once per response line. Completes the command waiting for the response (if any) - a response no command
+     * was waiting for is a broadcast notification.
+     *
+     * @param type a non-null response type
+     * @param portNbr the port number of the response (or 0 if none)
+     */
+    private void responseCompleted(Type type, int portNbr) {
+        if (!commands.responseReceived(type, portNbr)) {
+            lastBroadcast = System.currentTimeMillis();
         }
     }
 
     /**
-     * Handles the mirror response. The matcher should have two groups - an hdmi port number and an output port number.
+     * Returns the time the last broadcast notification (a response to no command of ours) was received
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @return the time (in milliseconds) of the last broadcast notification or 0 if none has been received
      */
-    private void handleMirrorResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
+    long getLastBroadcast() {
+        return lastBroadcast;
+    }
+
+    /**
+     * Handles the switch power response. The response should be either "PWON" or "PWOFF"
+     *
+     * @param resp the non-null, non-empty actual response
+     */
+    private void handlePowerResponse(CharSequence resp) {
+        logger.info("Handling Power Response {}", resp);
+        if (RSP_POWER_ON.contentEquals(resp)) {
+            callback.stateChanged(channels.getChannelId(Channel.POWER), OnOffType.ON);
+        } else if (RSP_POWER_OFF.contentEquals(resp)) {
+            callback.stateChanged(channels.getChannelId(Channel.POWER), OnOffType.OFF);
+        } else {
+            logger.warn("Invalid power response: '{}'", resp);
         }
-        if (m.groupCount() == 3) {
-            try {
-                int hdmiPortNbr = Integer.parseInt(m.group(1));
+        responseHandled(Type.POWER, 0);
+    }
 
-                // could be "off" (if mirror off), "on"/"Out" (with 3rd group representing out)
-                String oper = StringUtils.trimToEmpty(m.group(2)).toLowerCase();
+    /**
+     * Handles the version (firmware) response. Everything following the "Firmware " prefix is the version
+     *
+     * @param resp the non-null, non-empty actual response
+     */
+    private void handleVersionResponse(CharSequence resp) {
+        version = resp.subSequence(RSP_VERSION_PREFIX.length(), resp.length()).toString();
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_VERSION, version);
+        responseHandled(Type.VERSION, 0);
+    }
 
-                if (oper.equals("off")) {
-                    callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_MIRROR,
-                            hdmiPortNbr, AtlonaOpusConstants.CHANNEL_PORTMIRRORENABLED), OnOffType.OFF);
-                } else {
-                    int outPortNbr = Integer.parseInt(m.group(3));
-                    callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_MIRROR,
-                            hdmiPortNbr, AtlonaOpusConstants.CHANNEL_PORTMIRROR), new DecimalType(outPortNbr));
-                    callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_MIRROR,
-                            hdmiPortNbr, AtlonaOpusConstants.CHANNEL_PORTMIRRORENABLED), OnOffType.ON);
-                }
-            } catch (NumberFormatException e) {
-                logger.warn("Invalid mirror response (can't parse number): '{}'", resp);
+    /**
+     * Handles the type (model) response. The whole response is the type.
+     *
+     * @param resp the non-null, non-empty actual response
+     */
+    private void handleTypeResponse(CharSequence resp) {
+        modelType = resp.toString();
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_TYPE, modelType);
+        responseHandled(Type.TYPE, 0);
+        detectCapabilities(modelType);
+    }
+
+    /**
+     * Switches to the capabilities of the detected model if they differ from the current capabilities. The channel
+     * index, freshness tracker and matrix model are rebuilt for the model's ports and the state is refreshed again (so
+     * ports the prior capabilities didn't know of are queried). Unknown models keep the current capabilities.
+     *
+     * @param type the non-null type reported by the switch
+     */
+    private void detectCapabilities(String type) {
+        final AtlonaOpusCapabilities detected = AtlonaOpusCapabilities.forType(type);
+        if (detected == null) {
+            logger.debug("Unknown OPUS model '{}' - keeping capabilities ({})", type, capabilities);
+            return;
+        }
+
+        if (detected.equals(capabilities)) {
+            return;
+        }
+
+        logger.debug("Detected OPUS model '{}' - switching to its capabilities ({})", type, detected);
+        setCapabilities(detected);
+        refreshAll();
+    }
+
+    /**
+     * Returns the capabilities of the switch
+     *
+     * @return the non-null capabilities (of the detected model if detected)
+     */
+    AtlonaOpusCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Returns the index of the channels of the switch
+     *
+     * @return the non-null channel index (for the capabilities of the switch)
+     */
+    AtlonaOpusChannelIndex getChannelIndex() {
+        return channels;
+    }
+
+    /**
+     * Sets the capabilities of the switch - rebuilding the channel index, freshness tracker and matrix model
+     *
+     * @param newCapabilities the non-null new capabilities
+     */
+    private void setCapabilities(AtlonaOpusCapabilities newCapabilities) {
+        channels = new AtlonaOpusChannelIndex(channels.getThingUID(), newCapabilities);
+        freshness = new AtlonaOpusChannelFreshness(newCapabilities);
+        model = new AtlonaOpusMatrixModel(newCapabilities);
+        capabilities = newCapabilities;
+    }
+
+    /**
+     * Handles the panel lock response. The response is only on or off.
+     *
+     * @param resp the non-null, non-empty actual response
+     */
+    private void handlePanelLockResponse(CharSequence resp) {
+        callback.stateChanged(channels.getChannelId(Channel.PANELLOCK),
+                RSP_LOCK.contentEquals(resp) ? OnOffType.ON : OnOffType.OFF);
+        responseHandled(Type.PANEL_LOCK, 0);
+    }
+
+    /**
+     * Handles the port power response. The remainder of the response (starting at stateIdx) should be either "on" or
+     * "off"
+     *
+     * @param portNbr the parsed port number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
+     * @param stateIdx the index of the power state within the response
+     */
+    private void handlePortPowerResponse(int portNbr, CharSequence resp, int stateIdx) {
+        if (portNbr < 0) {
+            logger.warn("Invalid port power (can't parse number): '{}'", resp);
+        } else if (AtlonaOpusUtilities.remainderEquals(resp, stateIdx, RSP_ON)) {
+            if (model.updatePortPower(portNbr, true)) {
+                callback.stateChanged(channels.getChannelId(Channel.PORTPOWER, portNbr), OnOffType.ON);
+            }
+        } else if (AtlonaOpusUtilities.remainderEquals(resp, stateIdx, RSP_OFF)) {
+            if (model.updatePortPower(portNbr, false)) {
+                callback.stateChanged(channels.getChannelId(Channel.PORTPOWER, portNbr), OnOffType.OFF);
             }
         } else {
-            logger.warn("Invalid mirror response: '{}'", resp);
+            logger.warn("Invalid port power response: '{}'", resp);
         }
+        responseHandled(Type.PORT_POWER, portNbr);
     }
 
     /**
-     * Handles the unmirror response. The first group should contain the hdmi port number
+     * Handles the port all response. Simply calls {@link #refreshAllPortStatuses()}
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param portNbr the parsed input port number (or -1 if it couldn't be parsed)
+     * @param resp ignored
      */
-    private void handleUnMirrorResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
-        }
-        if (m.groupCount() == 1) {
-            try {
-                int hdmiPortNbr = Integer.parseInt(m.group(1));
-                callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_MIRROR, hdmiPortNbr,
-                        AtlonaOpusConstants.CHANNEL_PORTMIRROR), new DecimalType(0));
-            } catch (NumberFormatException e) {
-                logger.warn("Invalid unmirror response (can't parse number): '{}'", resp);
+    private void handlePortAllResponse(int portNbr, CharSequence resp) {
+        refreshAllPortStatuses();
+        responseHandled(Type.PORT_ALL, portNbr);
+    }
+
+    /**
+     * Handles the port reset response. Simply calls {@link #refreshAllPortStatuses()}
+     *
+     * @param resp ignored
+     */
+    private void handlePortResetResponse(CharSequence resp) {
+        refreshAllPortStatuses();
+        responseHandled(Type.PORT_RESET, 0);
+    }
+
+    /**
+     * Handles the port output response. The response can contain multiple "xIAVxO" pairs (optionally separated by
+     * commas) anywhere within it - each pair is an input port nbr and an output port number. The pairs are found in a
+     * single scan by looking for the "AVx" separator and then walking the digits on either side of it.
+     *
+     * @param resp the non-null, non-empty actual response
+     * @return true if at least one pair was found, false otherwise
+     */
+    private boolean handlePortOutputResponse(CharSequence resp) {
+        int pairs = 0;
+        int lastOutPort = 0;
+
+        // floor is the end of the last pair found - a pair can't reuse characters of a prior pair
+        int floor = 0;
+        int idx = AtlonaOpusUtilities.indexOf(resp, RSP_PORT_SWITCH, 0);
+        while (idx >= 0) {
+            int inStart = idx;
+            while (inStart > floor && AtlonaOpusUtilities.isDigit(resp.charAt(inStart - 1))) {
+                inStart--;
             }
+
+            final int outStart = idx + RSP_PORT_SWITCH.length();
+            final int outEnd = AtlonaOpusUtilities.skipDigits(resp, outStart);
+
+            if (inStart < idx && inStart - 1 >= floor && resp.charAt(inStart - 1) == RSP_PORT_PREFIX
+                    && outEnd > outStart) {
+                pairs++;
+                lastOutPort = AtlonaOpusUtilities.parseDigits(resp, outStart, outEnd);
+                updatePortOutput(AtlonaOpusUtilities.parseDigits(resp, inStart, idx), lastOutPort, resp);
+                floor = outEnd;
+                idx = AtlonaOpusUtilities.indexOf(resp, RSP_PORT_SWITCH, outEnd);
+            } else {
+                idx = AtlonaOpusUtilities.indexOf(resp, RSP_PORT_SWITCH, idx + 1);
+            }
+        }
+
+        if (pairs == 0) {
+            return false;
+        }
+
+        // the line is a single response - a lone pair answers a routing (or status) command for that output port, a
+        // line of pairs answers the "Status" of all ports
+        if (pairs == 1 && lastOutPort > 0) {
+            responseCompleted(Type.PORT_OUTPUT, lastOutPort);
         } else {
-            logger.warn("Invalid unmirror response: '{}'", resp);
+            responseCompleted(Type.PORT_OUTPUT, 0);
         }
+        return true;
     }
 
     /**
-     * Handles the volume response. The first two group should be the audio port number and the level
+     * Updates the output port channel with the input port that is routed to it (if the routing changed) and records
+     * that the routing has been confirmed by the switch. The response itself is completed (once per line) by
+     * {@link #handlePortOutputResponse(CharSequence)}.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param inPort the parsed input port number (or -1 if it couldn't be parsed)
+     * @param outPort the parsed output port number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleVolumeResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
+    private void updatePortOutput(int inPort, int outPort, CharSequence resp) {
+        if (inPort < 0 || outPort < 0) {
+            logger.warn("Invalid port output response (can't parse number): '{}'", resp);
+            return;
         }
-        if (m.groupCount() == 2) {
-            try {
-                int portNbr = Integer.parseInt(m.group(1));
-                double level = Double.parseDouble(m.group(2));
-                callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_VOLUME, portNbr,
-                        AtlonaOpusConstants.CHANNEL_VOLUME), new DecimalType(level));
-            } catch (NumberFormatException e) {
-                logger.warn("Invalid volume response (can't parse number): '{}'", resp);
-            }
+        if (model.updateRouting(outPort, inPort)) {
+            logger.info("Input port {} + Output Port {}", inPort, outPort);
+            callback.stateChanged(channels.getChannelId(Channel.PORTOUTPUT, outPort), new DecimalType(inPort));
+        }
+        freshness.confirm(Type.PORT_OUTPUT, outPort, System.currentTimeMillis());
+    }
+
+    /**
+     * Handles the mirror response. The response contains the hdmi port number followed by the operation ("off" if
+     * mirroring is off, "on"/"Out" followed by the output port number otherwise).
+     *
+     * @param hdmiPortNbr the parsed hdmi port number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
+     * @param operStart the index the operation starts at
+     * @param operEnd the index the operation ends at (and the output port number starts at)
+     */
+    private void handleMirrorResponse(int hdmiPortNbr, CharSequence resp, int operStart, int operEnd) {
+        if (hdmiPortNbr < 0) {
+            logger.warn("Invalid mirror response (can't parse number): '{}'", resp);
+            return;
+        }
+
+        if (operEnd - operStart == RSP_OFF.length() && regionMatchesIgnoreCase(resp, operStart, RSP_OFF)) {
+            callback.stateChanged(channels.getChannelId(Channel.PORTMIRRORENABLED, hdmiPortNbr), OnOffType.OFF);
         } else {
-            logger.warn("Invalid volume response: '{}'", resp);
+            final int outPortNbr = AtlonaOpusUtilities.parseDigits(resp, operEnd, resp.length());
+            if (outPortNbr < 0) {
+                logger.warn("Invalid mirror response (can't parse number): '{}'", resp);
+                return;
+            }
+            callback.stateChanged(channels.getChannelId(Channel.PORTMIRROR, hdmiPortNbr), new DecimalType(outPortNbr));
+            callback.stateChanged(channels.getChannelId(Channel.PORTMIRRORENABLED, hdmiPortNbr), OnOffType.ON);
         }
+        responseHandled(Type.PORT_MIRROR, hdmiPortNbr);
     }
 
     /**
-     * Handles the volume mute response. The first two group should be the audio port number and either "on" or "off
+     * Handles the unmirror response.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param hdmiPortNbr the parsed hdmi port number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleVolumeMuteResponse(Matcher m, String resp) {
-        if (m == null) {
-            throw new IllegalArgumentException("m (matcher) cannot be null");
+    private void handleUnMirrorResponse(int hdmiPortNbr, CharSequence resp) {
+        if (hdmiPortNbr < 0) {
+            logger.warn("Invalid unmirror response (can't parse number): '{}'", resp);
+            return;
         }
-        if (m.groupCount() == 2) {
-            try {
-                int portNbr = Integer.parseInt(m.group(1));
-                switch (m.group(2)) {
-                    case "on":
-                        callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_VOLUME,
-                                portNbr, AtlonaOpusConstants.CHANNEL_VOLUME_MUTE), OnOffType.ON);
-                        break;
-                    case "off":
-                        callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_VOLUME,
-                                portNbr, AtlonaOpusConstants.CHANNEL_VOLUME_MUTE), OnOffType.OFF);
-                        break;
-                    default:
-                        logger.warn("Invalid volume mute response: '{}'", resp);
-                }
-            } catch (NumberFormatException e) {
-                logger.warn("Invalid volume mute (can't parse number): '{}'", resp);
+        callback.stateChanged(channels.getChannelId(Channel.PORTMIRROR, hdmiPortNbr), new DecimalType(0));
+        responseHandled(Type.PORT_UNMIRROR, hdmiPortNbr);
+    }
+
+    /**
+     * Handles the volume response. The remainder of the response (starting at levelStart) is the (possibly negative)
+     * level
+     *
+     * @param portNbr the parsed audio port number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
+     * @param levelStart the index the level starts at
+     */
+    private void handleVolumeResponse(int portNbr, CharSequence resp, int levelStart) {
+        if (portNbr < 0) {
+            logger.warn("Invalid volume response (can't parse number): '{}'", resp);
+            return;
+        }
+
+        final boolean negative = resp.charAt(levelStart) == '-';
+        double level = 0;
+        for (int idx = negative ? levelStart + 1 : levelStart; idx < resp.length(); idx++) {
+            level = level * 10 + (resp.charAt(idx) - '0');
+        }
+        if (negative) {
+            level = -level;
+        }
+        if (model.updateVolume(portNbr, level)) {
+            callback.stateChanged(channels.getChannelId(Channel.VOLUME, portNbr), new DecimalType(level));
+        }
+        responseHandled(Type.VOLUME, portNbr);
+    }
+
+    /**
+     * Handles the volume mute response. The remainder of the response (starting at stateIdx) should be either "on" or
+     * "off"
+     *
+     * @param portNbr the parsed audio port number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
+     * @param stateIdx the index of the mute state within the response
+     */
+    private void handleVolumeMuteResponse(int portNbr, CharSequence resp, int stateIdx) {
+        if (portNbr < 0) {
+            logger.warn("Invalid volume mute (can't parse number): '{}'", resp);
+        } else if (AtlonaOpusUtilities.remainderEquals(resp, stateIdx, RSP_ON)) {
+            if (model.updateVolumeMute(portNbr, true)) {
+                callback.stateChanged(channels.getChannelId(Channel.VOLUME_MUTE, portNbr), OnOffType.ON);
+            }
+        } else if (AtlonaOpusUtilities.remainderEquals(resp, stateIdx, RSP_OFF)) {
+            if (model.updateVolumeMute(portNbr, false)) {
+                callback.stateChanged(channels.getChannelId(Channel.VOLUME_MUTE, portNbr), OnOffType.OFF);
             }
         } else {
             logger.warn("Invalid volume mute response: '{}'", resp);
         }
+        responseHandled(Type.VOLUME_MUTE, portNbr);
     }
 
     /**
      * Handles the IR Response. The response is either on or off
      *
-     * @param resp the possibly null, possibly empty actual response
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleIrLockResponse(String resp) {
-        callback.stateChanged(AtlonaOpusUtilities.createChannelID(AtlonaOpusConstants.GROUP_PRIMARY,
-                AtlonaOpusConstants.CHANNEL_IRENABLE), RSP_IRON.equals(resp) ? OnOffType.ON : OnOffType.OFF);
+    private void handleIrLockResponse(CharSequence resp) {
+        callback.stateChanged(channels.getChannelId(Channel.IRENABLE),
+                RSP_IRON.contentEquals(resp) ? OnOffType.ON : OnOffType.OFF);
+        responseHandled(Type.IR, 0);
     }
 
     /**
-     * Handles the Save IO Response. Should have one group specifying the preset number
+     * Handles the Save IO Response. The routing saved to the preset is remembered (so scenes can recall the preset).
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param presetNbr the parsed preset number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleSaveIoResponse(Matcher m, String resp) {
-        // nothing to handle
+    private void handleSaveIoResponse(int presetNbr, CharSequence resp) {
+        if (presetNbr > 0 && presetNbr <= AtlonaOpusPresetCache.MAX_PRESET_NBR) {
+            // the preset now holds the current routing
+            presets.put(presetNbr, model.getRouting());
+        }
+        responseHandled(Type.SAVE_IO, presetNbr);
     }
 
     /**
-     * Handles the Recall IO Response. Should have one group specifying the preset number. After updating the Recall
-     * State, we refresh all the ports via {@link #refreshAllPortStatuses()}.
+     * Handles the Recall IO Response. If the routing of the preset is known (see {@link AtlonaOpusPresetCache}), it's
+     * applied immediately. The routing is then verified by refreshing all the ports via
+     * {@link #refreshAllPortStatuses()}.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param presetNbr the parsed preset number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleRecallIoResponse(Matcher m, String resp) {
+    private void handleRecallIoResponse(int presetNbr, CharSequence resp) {
+        final int[] routing = presetNbr > 0 ? presets.get(presetNbr) : null;
+        if (routing != null) {
+            final int nbrPowerPorts = capabilities.getNbrPowerPorts();
+            for (int outPortNbr = 1; outPortNbr < routing.length && outPortNbr <= nbrPowerPorts; outPortNbr++) {
+                final int inPortNbr = routing[outPortNbr];
+                if (inPortNbr > 0 && model.updateRouting(outPortNbr, inPortNbr)) {
+                    callback.stateChanged(channels.getChannelId(Channel.PORTOUTPUT, outPortNbr),
+                            new DecimalType(inPortNbr));
+                }
+            }
+        }
         refreshAllPortStatuses();
+        responseHandled(Type.RECALL_IO, presetNbr);
     }
 
     /**
-     * Handles the Clear IO Response. Should have one group specifying the preset number.
+     * Handles the Clear IO Response. The routing remembered for the preset is forgotten.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param presetNbr the parsed preset number (or -1 if it couldn't be parsed)
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleClearIoResponse(Matcher m, String resp) {
-        // nothing to handle
+    private void handleClearIoResponse(int presetNbr, CharSequence resp) {
+        presets.remove(presetNbr);
+        responseHandled(Type.CLEAR_IO, presetNbr);
     }
 
     /**
-     * Handles the broadcast Response. Should have one group specifying the status.
+     * Handles the broadcast Response.
      *
-     * @param m the non-null {@link Matcher} that matched the response
-     * @param resp the possibly null, possibly empty actual response
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleBroadcastResponse(Matcher m, String resp) {
-        // nothing to handle
+    private void handleBroadcastResponse(CharSequence resp) {
+        responseHandled(Type.BROADCAST, 0);
     }
 
     /**
      * Handles the matrix reset response. The matrix will go offline immediately on a reset.
      *
-     * @param resp the possibly null, possibly empty actual response
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleMatrixResetResponse(String resp) {
-        if (RSP_MATRIX_RESET.equals(resp)) {
+    private void handleMatrixResetResponse(CharSequence resp) {
+        if (RSP_MATRIX_RESET.contentEquals(resp)) {
             callback.statusChanged(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
                     "System is rebooting due to matrix reset");
         }
+        responseHandled(Type.MATRIX_RESET, 0);
     }
 
     /**
-     * Handles a command failure - we simply log the response as an error
+     * Handles a command failure - we log the response as an error and fail the command it was for
      *
-     * @param resp the possibly null, possibly empty actual response
+     * @param resp the non-null, non-empty actual response
      */
-    private void handleCommandFailure(String resp) {
+    private void handleCommandFailure(CharSequence resp) {
         logger.info("{}", resp);
+        commands.commandFailed(resp);
+    }
+
+    /**
+     * Helper method to compare a region of the response to a (lowercase) token ignoring case
+     *
+     * @param resp the non-null response
+     * @param from the index to compare at
+     * @param token a non-null lowercase token
+     * @return true if the region matches the token ignoring case
+     */
+    private static boolean regionMatchesIgnoreCase(CharSequence resp, int from, String token) {
+        if (from + token.length() > resp.length()) {
+            return false;
+        }
+        for (int idx = 0; idx < token.length(); idx++) {
+            if (Character.toLowerCase(resp.charAt(from + idx)) != token.charAt(idx)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to determine if the range contains a line terminator (which the regex "." would not match)
+     *
+     * @param resp the non-null response
+     * @param from the index to start looking from
+     * @return true if a line terminator was found
+     */
+    private static boolean hasLineTerminator(CharSequence resp, int from) {
+        for (int idx = from; idx < resp.length(); idx++) {
+            final char c = resp.charAt(idx);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * This callback is our normal response callback. Should be set into the {@link SocketSession} after the login
      * process to handle normal responses.
      *
+     * Responses are dispatched in a single pass: routing pairs ("xIAVxO") may appear anywhere in a response so they are
+     * looked for first, then the first character of the response selects the (small) set of response formats that
+     * could apply. Numbers are parsed directly from the response without creating any intermediate objects - the
+     * response itself is the session's (reused) view of the line so nothing may hold onto it past the call.
+     *
      * @author Tim Roberts
      *
      */
-    public class NormalResponseCallback implements SocketSessionListener {
+    public class NormalResponseCallback implements SocketSessionLineListener {
 
         @Override
-        public void responseReceived(String response) {
-            if (response == null || response == "") {
+        public void responseReceived(CharSequence response) {
+            lastRead = System.currentTimeMillis();
+            if (response == null || response.length() == 0) {
                 return;
             }
 
-            if (RSP_PING.equals(response)) {
-                // ignore
+            if (RSP_PING.contentEquals(response)) {
+                // the expected response to our ping
+                responseHandled(Type.PING, 0);
                 return;
             }
 
-            Matcher m;
-
-            m = portStatusPattern.matcher(response);
-            if (m.find()) {
-                handlePortOutputResponse(m, response);
+            // checked first - a failure echoes the command (which may contain routing pairs)
+            if (AtlonaOpusUtilities.regionMatches(response, 0, RSP_FAILED)) {
+                handleCommandFailure(response);
                 return;
             }
 
-            m = portVideoInputPattern.matcher(response);
-            if (m.matches()) {
-                logger.info("Matched Video Pattern");
-                handlePortOutputResponse(m, response);
+            if (handlePortOutputResponse(response) || dispatch(response)) {
+                return;
             }
 
-            m = portAudioInputPattern.matcher(response);
-            if (m.matches()) {
-                handlePortOutputResponse(m, response);
-            }
+            logger.info("Unhandled response: {}", response);
+        }
 
-            m = powerStatusPattern.matcher(response);
-            if (m.matches()) {
-                handlePowerResponse(m, response);
-                return;
-            }
+        /**
+         * Dispatches the response to the handler for it based on the first character of the response
+         *
+         * @param resp the non-null, non-empty response
+         * @return true if the response was handled, false otherwise
+         */
+        private boolean dispatch(CharSequence resp) {
+            final int len = resp.length();
+            int end;
+
+            switch (resp.charAt(0)) {
+                case RSP_PORT_PREFIX:
+                    return dispatchPortResponse(resp);
+
+                case 'P':
+                    if (AtlonaOpusUtilities.regionMatches(resp, 0, RSP_POWER_PREFIX)
+                            && AtlonaOpusUtilities.isWord(resp, RSP_POWER_PREFIX.length(), len)) {
+                        handlePowerResponse(resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'F':
+                    if (AtlonaOpusUtilities.regionMatches(resp, 0, RSP_VERSION_PREFIX)
+                            && !hasLineTerminator(resp, RSP_VERSION_PREFIX.length())) {
+                        handleVersionResponse(resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'A':
+                    end = AtlonaOpusUtilities.prefixedDigitsEnd(resp, RSP_TYPE_PREFIX);
+                    if (end > 0 && end == len - 1 && resp.charAt(end) == RSP_TYPE_SUFFIX) {
+                        handleTypeResponse(resp);
+                        return true;
+                    }
+                    if (RSP_ALL.contentEquals(resp)) {
+                        handlePortResetResponse(resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'V':
+                    end = AtlonaOpusUtilities.prefixedDigitsEnd(resp, RSP_VOLUME_MUTE_PREFIX);
+                    if (end > 0) {
+                        if (end + 1 < len && resp.charAt(end) == ' '
+                                && AtlonaOpusUtilities.isWord(resp, end + 1, len)) {
+                            handleVolumeMuteResponse(
+                                    AtlonaOpusUtilities.parseDigits(resp, RSP_VOLUME_MUTE_PREFIX.length(), end), resp,
+                                    end + 1);
+                            return true;
+                        }
+                        return false;
+                    }
+
+                    end = AtlonaOpusUtilities.prefixedDigitsEnd(resp, RSP_VOLUME_PREFIX);
+                    if (end > 0 && end + 1 < len && resp.charAt(end) == ' ') {
+                        final int levelStart = resp.charAt(end + 1) == '-' ? end + 2 : end + 1;
+                        final int levelEnd = AtlonaOpusUtilities.skipDigits(resp, levelStart);
+                        if (levelEnd > levelStart && levelEnd == len) {
+                            handleVolumeResponse(AtlonaOpusUtilities.parseDigits(resp, RSP_VOLUME_PREFIX.length(), end),
+                                    resp, end + 1);
+                            return true;
+                        }
+                    }
+                    return false;
+
+                case 'M':
+                    end = AtlonaOpusUtilities.prefixedDigitsEnd(resp, RSP_PORT_MIRROR_PREFIX);
+                    if (end > 0 && end + 1 < len && resp.charAt(end) == ' ') {
+                        final int operStart = end + 1;
+                        int operEnd = operStart;
+                        while (operEnd < len && AtlonaOpusUtilities.isAlpha(resp.charAt(operEnd))) {
+                            operEnd++;
+                        }
+                        if (operEnd > operStart && AtlonaOpusUtilities.skipDigits(resp, operEnd) == len) {
+                            handleMirrorResponse(
+                                    AtlonaOpusUtilities.parseDigits(resp, RSP_PORT_MIRROR_PREFIX.length(), end), resp,
+                                    operStart, operEnd);
+                            return true;
+                        }
+                        return false;
+                    }
+                    if (RSP_MATRIX_RESET.contentEquals(resp)) {
+                        handleMatrixResetResponse(resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'U':
+                    end = AtlonaOpusUtilities.prefixedDigitsEnd(resp, RSP_PORT_UNMIRROR_PREFIX);
+                    if (end == len) {
+                        handleUnMirrorResponse(
+                                AtlonaOpusUtilities.parseDigits(resp, RSP_PORT_UNMIRROR_PREFIX.length(), end), resp);
+                        return true;
+                    }
+                    if (RSP_UNLOCK.contentEquals(resp)) {
+                        handlePanelLockResponse(resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'S':
+                    end = AtlonaOpusUtilities.prefixedDigitsEnd(resp, RSP_SAVEIO_PREFIX);
+                    if (end == len) {
+                        handleSaveIoResponse(AtlonaOpusUtilities.parseDigits(resp, RSP_SAVEIO_PREFIX.length(), end),
+                                resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'R':
+                    end = AtlonaOpusUtilities.prefixedDigitsEnd(resp, RSP_RECALLIO_PREFIX);
+                    if (end == len) {
+                        handleRecallIoResponse(
+                                AtlonaOpusUtilities.parseDigits(resp, RSP_RECALLIO_PREFIX.length(), end), resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'C':
+                    end = AtlonaOpusUtilities.prefixedDigitsEnd(resp, RSP_CLEARIO_PREFIX);
+                    if (end == len) {
+                        handleClearIoResponse(AtlonaOpusUtilities.parseDigits(resp, RSP_CLEARIO_PREFIX.length(), end),
+                                resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'B':
+                    if (AtlonaOpusUtilities.regionMatches(resp, 0, RSP_BROADCAST_PREFIX)
+                            && AtlonaOpusUtilities.isWord(resp, RSP_BROADCAST_PREFIX.length(), len)) {
+                        handleBroadcastResponse(resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'I':
+                    if (RSP_IRON.contentEquals(resp) || RSP_IROFF.contentEquals(resp)) {
+                        handleIrLockResponse(resp);
+                        return true;
+                    }
+                    return false;
+
+                case 'L':
+                    if (RSP_LOCK.contentEquals(resp)) {
+                        handlePanelLockResponse(resp);
+                        return true;
+                    }
+                    return false;
 
-            m = versionPattern.matcher(response);
-            if (m.matches()) {
-                handleVersionResponse(m, response);
-                return;
+                default:
+                    return false;
             }
+        }
 
-            m = typePattern.matcher(response);
-            if (m.matches()) {
-                handleTypeResponse(m, response);
-                return;
+        /**
+         * Dispatches the responses starting with an "x" - the video/audio input ("xIVOx"/"xIAOx"), port power
+         * ("xO$ state") and port all ("xIAll") responses. The routing pairs ("xIAVxO") have already been handled.
+         *
+         * @param resp the non-null, non-empty response starting with an "x"
+         * @return true if the response was handled, false otherwise
+         */
+        private boolean dispatchPortResponse(CharSequence resp) {
+            final int len = resp.length();
+            final int end = AtlonaOpusUtilities.skipDigits(resp, 1);
+            if (end == 1 || end >= len) {
+                return false;
             }
 
-            m = portPowerPattern.matcher(response);
-            if (m.matches()) {
-                handlePortPowerResponse(m, response);
-                return;
-            }
+            final int portNbr = AtlonaOpusUtilities.parseDigits(resp, 1, end);
+            switch (resp.charAt(end)) {
+                case 'V':
+                    if (dispatchPortInputResponse(portNbr, resp, end + 1)) {
+                        logger.info("Matched Video Pattern");
+                        return true;
+                    }
+                    return false;
+
+                case 'A':
+                    if (AtlonaOpusUtilities.remainderEquals(resp, end, RSP_PORT_ALL)) {
+                        handlePortAllResponse(portNbr, resp);
+                        return true;
+                    }
+                    return dispatchPortInputResponse(portNbr, resp, end + 1);
+
+                case '$':
+                    if (end + 2 < len && resp.charAt(end + 1) == ' '
+                            && AtlonaOpusUtilities.isWord(resp, end + 2, len)) {
+                        handlePortPowerResponse(portNbr, resp, end + 2);
+                        return true;
+                    }
+                    return false;
 
-            m = volumePattern.matcher(response);
-            if (m.matches()) {
-                handleVolumeResponse(m, response);
-                return;
+                default:
+                    return false;
             }
+        }
 
-            m = volumeMutePattern.matcher(response);
-            if (m.matches()) {
-                handleVolumeMuteResponse(m, response);
-                return;
+        /**
+         * Dispatches the video/audio input response if the remainder of the response is digits followed by an "x"
+         *
+         * @param inPort the parsed input port number (or -1 if it couldn't be parsed)
+         * @param resp the non-null, non-empty response
+         * @param outStart the index the output port number starts at
+         * @return true if the response was handled, false otherwise
+         */
+        private boolean dispatchPortInputResponse(int inPort, CharSequence resp, int outStart) {
+            final int outEnd = AtlonaOpusUtilities.skipDigits(resp, outStart);
+            if (outEnd > outStart && outEnd == resp.length() - 1 && resp.charAt(outEnd) == RSP_PORT_PREFIX) {
+                final int outPort = AtlonaOpusUtilities.parseDigits(resp, outStart, outEnd);
+                updatePortOutput(inPort, outPort, resp);
+                responseCompleted(Type.PORT_OUTPUT, outPort);
+                return true;
             }
+            return false;
+        }
 
-            m = portAllPattern.matcher(response);
-            if (m.matches()) {
-                handlePortAllResponse(response);
-                return;
-            }
+        @Override
+        public void responseException(Exception e) {
+            callback.statusChanged(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                    "Exception occurred reading from Atlona: " + e);
+        }
+    }
 
-            m = portMirrorPattern.matcher(response);
-            if (m.matches()) {
-                handleMirrorResponse(m, response);
-                return;
-            }
+    /**
+     * This callback drives the login process and should be set into the {@link SocketSession} (in place of the
+     * {@link NormalResponseCallback}) when the session is connected. Each response advances the login a step:
+     * <ol>
+     * <li>The switch may (or may not) send an initial empty response. Once received (or the step times out), an invalid
+     * command/user is sent to probe whether the switch wants a login.</li>
+     * <li>A "Command FAILED" response means the switch isn't configured with IP login - we are logged in. A "Login"
+     * prompt means the username should be sent.</li>
+     * <li>A "Password" prompt means the username was accepted and the password should be sent (another "Login" prompt
+     * means the username was invalid).</li>
+     * <li>An empty response follows the password - the invalid command is sent again.</li>
+     * <li>A "Command FAILED" response means we are logged in - anything else means the password was invalid.</li>
+     * </ol>
+     * Empty responses (the "\r\n" preceding prompts) are otherwise ignored.
+     */
+    private class LoginCallback implements SocketSessionListener {
 
-            m = portUnmirrorPattern.matcher(response);
-            if (m.matches()) {
-                handleUnMirrorResponse(m, response);
-                return;
-            }
+        /**
+         * The step of the login that is awaiting a response. Guarded by this.
+         */
+        private LoginState state = LoginState.AWAIT_GREETING;
 
-            m = saveIoPattern.matcher(response);
-            if (m.matches()) {
-                handleSaveIoResponse(m, response);
-                return;
-            }
+        /**
+         * The result of the login
+         */
+        private final CompletableFuture<String> result = new CompletableFuture<>();
 
-            m = recallIoPattern.matcher(response);
-            if (m.matches()) {
-                handleRecallIoResponse(m, response);
-                return;
-            }
+        /**
+         * The timeout for the current step (null if none). Guarded by this.
+         */
+        private ScheduledFuture<?> stepTimeout;
 
-            m = clearIoPattern.matcher(response);
-            if (m.matches()) {
-                handleClearIoResponse(m, response);
-                return;
-            }
+        /**
+         * The timeout for the whole login. Guarded by this.
+         */
+        private ScheduledFuture<?> deadline;
 
-            m = broadCastPattern.matcher(response);
-            if (m.matches()) {
-                handleBroadcastResponse(m, response);
-                return;
-            }
+        /**
+         * Whether the login has finished (the result may not have been completed yet). Guarded by this.
+         */
+        private boolean finished;
 
-            if (RSP_IRON.equals(response) || RSP_IROFF.equals(response)) {
-                handleIrLockResponse(response);
-                return;
-            }
+        /**
+         * Returns the future completed by the login
+         *
+         * @return a non-null future
+         */
+        CompletableFuture<String> getResult() {
+            return result;
+        }
 
-            if (RSP_ALL.equals(response)) {
-                handlePortAllResponse(response);
-                return;
-            }
+        /**
+         * Starts the login - schedules the overall deadline and waits for the initial empty response
+         */
+        synchronized void start() {
+            final long loginMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getLoginTimeout()));
+            deadline = scheduler.schedule(() -> timedOut("Login did not complete within " + loginMillis + "ms"),
+                    loginMillis, TimeUnit.MILLISECONDS);
+            awaitStep(LoginState.AWAIT_GREETING);
+        }
 
-            if (RSP_LOCK.equals(response) || RSP_UNLOCK.equals(response)) {
-                handlePanelLockResponse(response);
-                return;
+        /**
+         * {@inheritDoc}
+         *
+         * The response advances the login under the lock - anything to send is sent (and a successful login completed)
+         * after the lock has been released, so the lock is never held while waiting on the session
+         */
+        @Override
+        public void responseReceived(String response) {
+            final String command;
+            final boolean succeeded;
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                command = advance(response);
+                succeeded = finished && !result.isDone();
             }
 
-            if (RSP_MATRIX_RESET.equals(response)) {
-                handleMatrixResetResponse(response);
-                return;
+            if (succeeded) {
+                postLogin();
+                result.complete(null);
+            } else {
+                send(command);
             }
+        }
 
-            if (response.startsWith(RSP_FAILED)) {
-                handleCommandFailure(response);
-                return;
-            }
+        /**
+         * Advances the login with the response. Must be called holding the lock.
+         *
+         * @param response the non-null response
+         * @return the command to send (or null if none)
+         */
+        private String advance(String response) {
+            switch (state) {
+                case AWAIT_GREETING:
+                    if (!response.equals("")) {
+                        logger.info("Altona protocol violation - didn't start with an inital empty response: '{}'",
+                                response);
+                    }
+                    return probe(LoginState.AWAIT_LOGIN_PROMPT);
+
+                case AWAIT_LOGIN_PROMPT:
+                    if (response.startsWith(RSP_FAILED)) {
+                        // Command failed - Altona not configured with IPLogin - return success
+                        logger.debug("Altona didn't require a login");
+                        finish();
+                    } else if (response.equals(RSP_LOGIN)) {
+                        if (config.getUserName() == null || config.getUserName().trim().length() == 0) {
+                            fail("Atlona PRO3 has enabled Telnet/IP Login but no username was provided in the "
+                                    + "configuration.");
+                        } else {
+                            // Send the username and wait for a "Password" response
+                            awaitStep(LoginState.AWAIT_PASSWORD_PROMPT);
+                            return config.getUserName();
+                        }
+                    } else if (!response.equals("")) {
+                        fail("Altona protocol violation - wasn't initially a command failure or login prompt: "
+                                + response);
+                    }
+                    return null;
+
+                case AWAIT_PASSWORD_PROMPT:
+                    if (response.equals(RSP_PASSWORD)) {
+                        if (config.getPassword() == null || config.getPassword().trim().length() == 0) {
+                            fail("Atlona PRO3 has enabled Telnet/IP Login but no password was provided in the "
+                                    + "configuration.");
+                        } else {
+                            awaitStep(LoginState.AWAIT_PASSWORD_ACK);
+                            return config.getPassword();
+                        }
+                    } else if (response.equals(RSP_LOGIN)) {
+                        // If we got another login response, username wasn't valid
+                        fail("Username " + config.getUserName() + " is not a valid user on the atlona");
+                    } else if (!response.equals("")) {
+                        fail("Altona protocol violation - invalid response to a login: " + response);
+                    }
+                    return null;
+
+                case AWAIT_PASSWORD_ACK:
+                    // At this point, we don't know if we received a
+                    // 1) "\r\n" and waiting for a command
+                    // or 2) "\r\nLogin: " if the password is invalid
+                    // Send an invalid command to see if we get the failed command response
+                    if (!response.equals("")) {
+                        logger.info("Altona protocol violation - not an empty response after password: '{}'",
+                                response);
+                    }
+                    return probe(LoginState.AWAIT_LOGIN_CONFIRM);
+
+                case AWAIT_LOGIN_CONFIRM:
+                    // If we get an invalid command response - we are logged in
+                    if (response.startsWith(RSP_FAILED)) {
+                        finish();
+                    } else if (!response.equals("")) {
+                        // Nope - password invalid
+                        fail("Password was invalid - please check your atlona setup");
+                    }
+                    return null;
 
-            logger.info("Unhandled response: {}", response);
+                default:
+                    return null;
+            }
         }
 
         @Override
         public void responseException(Exception e) {
-            callback.statusChanged(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
-                    "Exception occurred reading from Atlona: " + e);
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finish();
+            }
+            result.completeExceptionally(e);
+        }
+
+        /**
+         * Cancels the login (if not already completed)
+         */
+        void cancel() {
+            responseException(new CancellationException("Login cancelled"));
         }
-    }
 
-    public class NoDispatchingCallback implements SocketSessionListener {
+        /**
+         * Moves to the given step awaiting the response to the invalid command/user used to identify whether the
+         * switch wants a login (or whether the login succeeded). Must be called holding the lock.
+         *
+         * @param next the non-null step awaiting the response to the probe
+         * @return the non-null probe to send
+         */
+        private String probe(LoginState next) {
+            awaitStep(next);
+            return NOTVALID_USER_OR_CMD;
+        }
+
+        /**
+         * Sends the command (if any) outside of the lock - failing the login if it could not be sent
+         *
+         * @param command the possibly null command
+         */
+        private void send(String command) {
+            if (command == null) {
+                return;
+            }
+            try {
+                session.sendCommand(command);
+            } catch (IOException e) {
+                responseException(e);
+            }
+        }
 
         /**
-         * Cache of responses that have occurred
+         * Moves to the given step, (re)scheduling the step timeout. Must be called holding the lock.
+         *
+         * @param next the non-null step awaiting a response
          */
-        private BlockingQueue<Object> responses = new ArrayBlockingQueue<>(5);
+        private void awaitStep(LoginState next) {
+            cancelStepTimeout();
+            state = next;
+            final long stepMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getCommandTimeout()));
+            stepTimeout = scheduler.schedule(() -> stepTimedOut(next), stepMillis, TimeUnit.MILLISECONDS);
+        }
 
         /**
-         * Will return the next response from {@link #responses}. If the response is an exception, that exception will
-         * be thrown instead.
+         * Called when the step has not been responded to in time. The initial empty response is optional (the switch
+         * may not send one) so the login simply moves on to the probe - any other step fails the login.
          *
-         * @return a non-null, possibly empty response
-         * @throws Exception an exception if one occurred during reading
+         * @param step the non-null step that timed out
          */
-        String getResponse() throws Exception {
-            final Object lastResponse = responses.poll(5, TimeUnit.SECONDS);
-            if (lastResponse instanceof String) {
-                return (String) lastResponse;
-            } else if (lastResponse instanceof Exception) {
-                throw (Exception) lastResponse;
-            } else if (lastResponse == null) {
-                throw new Exception("Didn't receive response in time");
+        private void stepTimedOut(LoginState step) {
+            final String command;
+            synchronized (this) {
+                if (finished || state != step) {
+                    return;
+                }
+                if (step != LoginState.AWAIT_GREETING) {
+                    command = null;
+                } else {
+                    command = probe(LoginState.AWAIT_LOGIN_PROMPT);
+                }
+            }
+
+            if (command == null) {
+                timedOut("Didn't receive response in time (" + step + ")");
             } else {
-                return lastResponse.toString();
+                send(command);
             }
         }
 
-        @Override
-        public void responseReceived(String response) {
-            try {
-                responses.put(response);
-            } catch (InterruptedException e) {
+        /**
+         * Fails the login with a {@link TimeoutException}
+         *
+         * @param msg the non-null timeout message
+         */
+        private void timedOut(String msg) {
+            responseException(new TimeoutException(msg));
+        }
+
+        /**
+         * Completes the login with the reason the switch refused it. Must be called holding the lock.
+         *
+         * @param reason a non-null reason
+         */
+        private void fail(String reason) {
+            finish();
+            result.complete(reason);
+        }
+
+        /**
+         * Marks the login finished, cancels the timeouts and stops listening to the session. Must be called holding
+         * the lock.
+         */
+        private void finish() {
+            finished = true;
+            cancelStepTimeout();
+            if (deadline != null) {
+                deadline.cancel(false);
             }
+            session.removeListener(this);
         }
 
-        @Override
-        public void responseException(Exception e) {
-            try {
-                responses.put(e);
-            } catch (InterruptedException e1) {
+        /**
+         * Cancels the step timeout if one is scheduled
+         */
+        private void cancelStepTimeout() {
+            if (stepTimeout != null) {
+                stepTimeout.cancel(false);
+                stepTimeout = null;
             }
         }
     }
+
+    /**
+     * The steps of the login process (see {@link LoginCallback})
+     */
+    private enum LoginState {
+        AWAIT_GREETING,
+        AWAIT_LOGIN_PROMPT,
+        AWAIT_PASSWORD_PROMPT,
+        AWAIT_PASSWORD_ACK,
+        AWAIT_LOGIN_CONFIRM
+    }
 }
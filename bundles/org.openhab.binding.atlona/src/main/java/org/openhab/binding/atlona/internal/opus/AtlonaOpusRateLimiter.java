@@ -0,0 +1,97 @@
+package org.openhab.binding.atlona.internal.opus;
+
+/**
+ * A token bucket limiting the rate commands are written to the switch. The OPUS telnet interface silently drops (or
+ * garbles) commands when flooded - the bucket holds up to the burst size of tokens and is refilled at the configured
+ * number of commands per second. Each command written takes a token, a command that can't get one waits in the
+ * {@link AtlonaOpusCommandPipeline} until the bucket has been refilled (it is never dropped).
+ *
+ * The limiter is not thread safe - it's guarded by the lock of the {@link AtlonaOpusCommandPipeline} using it.
+ */
+class AtlonaOpusRateLimiter {
+
+    /**
+     * The tokens added per millisecond (0 if unlimited)
+     */
+    private final double tokensPerMilli;
+
+    /**
+     * The most tokens the bucket holds
+     */
+    private final double burst;
+
+    /**
+     * The tokens in the bucket (as of {@link #refilledAt})
+     */
+    private double tokens;
+
+    /**
+     * The time (in milliseconds) the bucket was last refilled
+     */
+    private long refilledAt;
+
+    /**
+     * Constructs the limiter from the given parameters. The bucket starts full.
+     *
+     * @param commandsPerSecond the greater than or equal to 0 number of commands per second (0 for unlimited)
+     * @param burst the greater than 0 most commands written back to back
+     */
+    AtlonaOpusRateLimiter(double commandsPerSecond, int burst) {
+        if (commandsPerSecond < 0) {
+            throw new IllegalArgumentException("commandsPerSecond must be greater than or equal to 0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be greater than 0");
+        }
+
+        this.tokensPerMilli = commandsPerSecond / 1000;
+        this.burst = burst;
+        this.tokens = burst;
+    }
+
+    /**
+     * Takes a token from the bucket if one is available
+     *
+     * @param now the current time (in milliseconds)
+     * @return true if a command can be written, false if it has to wait (see {@link #nextTokenIn(long)})
+     */
+    boolean tryAcquire(long now) {
+        if (tokensPerMilli == 0) {
+            return true;
+        }
+
+        refill(now);
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Returns how long until the next token is available
+     *
+     * @param now the current time (in milliseconds)
+     * @return the time (in milliseconds, 0 if available now) until {@link #tryAcquire(long)} will succeed
+     */
+    long nextTokenIn(long now) {
+        if (tokensPerMilli == 0) {
+            return 0;
+        }
+
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerMilli);
+    }
+
+    /**
+     * Adds the tokens accrued since the bucket was last refilled (up to the burst size)
+     *
+     * @param now the current time (in milliseconds)
+     */
+    private void refill(long now) {
+        if (now > refilledAt) {
+            tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerMilli);
+            refilledAt = now;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.atlona.internal.AtlonaHandlerCallback;
+
+/**
+ * The policy deciding how long to wait before each reconnect attempt. The first attempt after a connection is lost is
+ * made immediately (a switch that simply dropped the connection is usually back right away). Further attempts back
+ * off exponentially with decorrelated jitter - each delay is a random time between the base delay and three times the
+ * previous delay (capped at the maximum delay) - so that handlers for switches that went down together (a rack power
+ * cycle) don't all reconnect at the same instant. A successful login resets the policy.
+ *
+ * The number of attempts, the current backoff, the duration of the last outage and the number of reconnects are
+ * published as thing properties.
+ */
+class AtlonaOpusReconnectPolicy {
+
+    /**
+     * The {@link AtlonaHandlerCallback} the statistics are published to
+     */
+    private final AtlonaHandlerCallback callback;
+
+    /**
+     * The base (shortest, after the immediate first attempt) delay in milliseconds
+     */
+    private final long baseMillis;
+
+    /**
+     * The longest delay in milliseconds
+     */
+    private final long capMillis;
+
+    /**
+     * The number of attempts made since the connection was lost
+     */
+    private int attempts;
+
+    /**
+     * The previous delay in milliseconds
+     */
+    private long lastDelayMillis;
+
+    /**
+     * The time (in milliseconds, 0 if connected) the connection was lost
+     */
+    private long disconnectedAt;
+
+    /**
+     * The number of successful reconnects
+     */
+    private long reconnects;
+
+    /**
+     * Constructs the policy from the given parameters
+     *
+     * @param config a non-null {@link AtlonaOpusConfig} with the retry polling and maximum retry polling
+     * @param callback a non-null {@link AtlonaHandlerCallback} to publish the statistics to
+     */
+    AtlonaOpusReconnectPolicy(AtlonaOpusConfig config, AtlonaHandlerCallback callback) {
+        if (config == null) {
+            throw new IllegalArgumentException("config cannot be null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback cannot be null");
+        }
+
+        this.callback = callback;
+        this.baseMillis = TimeUnit.SECONDS.toMillis(Math.max(1, config.getRetryPolling()));
+        this.capMillis = Math.max(baseMillis, TimeUnit.SECONDS.toMillis(config.getMaxRetryPolling()));
+        this.lastDelayMillis = baseMillis;
+    }
+
+    /**
+     * Returns the delay before the next reconnect attempt (and counts the attempt)
+     *
+     * @return the delay in milliseconds (0 for the first attempt)
+     */
+    synchronized long nextDelay() {
+        if (disconnectedAt == 0) {
+            disconnectedAt = System.currentTimeMillis();
+        }
+
+        final long delayMillis;
+        if (attempts == 0) {
+            delayMillis = 0;
+        } else {
+            final long upper = Math.min(capMillis, lastDelayMillis * 3);
+            delayMillis = upper <= baseMillis ? baseMillis
+                    : ThreadLocalRandom.current().nextLong(baseMillis, upper + 1);
+            lastDelayMillis = delayMillis;
+        }
+
+        attempts++;
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_RECONNECT_ATTEMPTS, String.valueOf(attempts));
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_RECONNECT_BACKOFF, String.valueOf(delayMillis));
+        return delayMillis;
+    }
+
+    /**
+     * Called when the connection (and login) succeeded. Resets the policy and publishes the outage duration.
+     */
+    synchronized void connected() {
+        if (disconnectedAt != 0) {
+            reconnects++;
+            callback.setProperty(AtlonaOpusConstants.PROPERTY_RECONNECT_DURATION,
+                    String.valueOf(System.currentTimeMillis() - disconnectedAt));
+            callback.setProperty(AtlonaOpusConstants.PROPERTY_RECONNECTS, String.valueOf(reconnects));
+        }
+
+        attempts = 0;
+        lastDelayMillis = baseMillis;
+        disconnectedAt = 0;
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_RECONNECT_ATTEMPTS, "0");
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_RECONNECT_BACKOFF, "0");
+    }
+}
@@ -0,0 +1,196 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.atlona.internal.opus.AtlonaOpusChannelIndex.Channel;
+import org.openhab.binding.atlona.internal.opus.AtlonaOpusCommand.Priority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects channel refresh requests over a short window and merges them into the smallest set of queries. openHAB
+ * refreshes every linked channel at startup (and when a UI reloads) - rather than one query per channel:
+ * <ul>
+ * <li>every requested port output is covered by a single "Status" query</li>
+ * <li>duplicate requests for the same channel are sent once</li>
+ * <li>if the merged queries are at least half of what a full refresh would send, a full refresh
+ * ({@link AtlonaOpusProtocolHandler#refreshAll(Priority)}) is sent instead</li>
+ * </ul>
+ * The queries are sent in the refresh lane (see {@link Priority#REFRESH}).
+ */
+class AtlonaOpusRefreshCoalescer {
+
+    private final Logger logger = LoggerFactory.getLogger(AtlonaOpusRefreshCoalescer.class);
+
+    /**
+     * The scheduler the window is timed on
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The protocol handler the queries are sent through
+     */
+    private final AtlonaOpusProtocolHandler protocolHandler;
+
+    /**
+     * The time (in milliseconds) refresh requests are collected for
+     */
+    private final long windowMillis;
+
+    /**
+     * The requested port numbers (0 for channels without a port) by channel. Guarded by this.
+     */
+    private final Map<Channel, BitSet> requests = new EnumMap<>(Channel.class);
+
+    /**
+     * The scheduled flush of the requests (null if none are waiting). Guarded by this.
+     */
+    private ScheduledFuture<?> flush;
+
+    /**
+     * Constructs the coalescer
+     *
+     * @param scheduler a non-null scheduler
+     * @param protocolHandler a non-null protocol handler
+     * @param windowMillis a greater than or equal to 0 time (in milliseconds) to collect requests for
+     */
+    AtlonaOpusRefreshCoalescer(ScheduledExecutorService scheduler, AtlonaOpusProtocolHandler protocolHandler,
+            long windowMillis) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler cannot be null");
+        }
+
+        if (protocolHandler == null) {
+            throw new IllegalArgumentException("protocolHandler cannot be null");
+        }
+
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis must be greater than or equal to 0");
+        }
+
+        this.scheduler = scheduler;
+        this.protocolHandler = protocolHandler;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Requests a refresh of the channel. Requests for channels that can't be queried are ignored.
+     *
+     * @param channel a non-null channel
+     * @param portNbr the port number of the channel (ignored for channels without a port)
+     */
+    void request(Channel channel, int portNbr) {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel cannot be null");
+        }
+
+        switch (channel) {
+            case POWER:
+                portNbr = 0;
+                break;
+            case PORTOUTPUT:
+            case PORTPOWER:
+            case PORTMIRROR:
+            case VOLUME:
+            case VOLUME_MUTE:
+                if (portNbr < 1) {
+                    return;
+                }
+                break;
+            default:
+                return;
+        }
+
+        synchronized (this) {
+            requests.computeIfAbsent(channel, c -> new BitSet()).set(portNbr);
+            if (flush == null) {
+                flush = scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stops the coalescer - discarding any requests waiting to be sent
+     */
+    void stop() {
+        synchronized (this) {
+            if (flush != null) {
+                flush.cancel(false);
+                flush = null;
+            }
+            requests.clear();
+        }
+    }
+
+    /**
+     * Sends the merged queries for the requests collected in the window
+     */
+    private void flush() {
+        final Map<Channel, BitSet> requested;
+        synchronized (this) {
+            flush = null;
+            if (requests.isEmpty()) {
+                return;
+            }
+            requested = new EnumMap<>(requests);
+            requests.clear();
+        }
+
+        int queries = 0;
+        for (Map.Entry<Channel, BitSet> entry : requested.entrySet()) {
+            // a single "Status" covers all port outputs
+            queries += entry.getKey() == Channel.PORTOUTPUT ? 1 : entry.getValue().cardinality();
+        }
+
+        final AtlonaOpusCapabilities capabilities = protocolHandler.getCapabilities();
+        final int fullRefresh = 2 + capabilities.getNbrPowerPorts() + 2 * capabilities.getNbrAudioPorts()
+                + capabilities.getHdmiPorts().size();
+        if (queries * 2 >= fullRefresh) {
+            logger.debug("Coalesced {} refresh queries into a full refresh", queries);
+            protocolHandler.refreshAll(Priority.REFRESH);
+            return;
+        }
+
+        logger.debug("Coalesced refresh requests into {} queries", queries);
+        protocolHandler.refresh(() -> {
+            for (Map.Entry<Channel, BitSet> entry : requested.entrySet()) {
+                final BitSet ports = entry.getValue();
+                switch (entry.getKey()) {
+                    case POWER:
+                        protocolHandler.refreshPower();
+                        break;
+                    case PORTOUTPUT:
+                        protocolHandler.refreshAllPortStatuses();
+                        break;
+                    case PORTPOWER:
+                        for (int x = ports.nextSetBit(1); x >= 0; x = ports.nextSetBit(x + 1)) {
+                            protocolHandler.refreshPortPower(x);
+                        }
+                        break;
+                    case PORTMIRROR:
+                        for (int x = ports.nextSetBit(1); x >= 0; x = ports.nextSetBit(x + 1)) {
+                            protocolHandler.refreshPortMirror(x);
+                        }
+                        break;
+                    case VOLUME:
+                        for (int x = ports.nextSetBit(1); x >= 0; x = ports.nextSetBit(x + 1)) {
+                            protocolHandler.refreshVolumeStatus(x);
+                        }
+                        break;
+                    case VOLUME_MUTE:
+                        for (int x = ports.nextSetBit(1); x >= 0; x = ports.nextSetBit(x + 1)) {
+                            protocolHandler.refreshVolumeMute(x);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+    }
+}
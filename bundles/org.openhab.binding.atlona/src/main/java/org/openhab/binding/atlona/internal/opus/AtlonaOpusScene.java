@@ -0,0 +1,292 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A scene is the target state of (part of) the switch - the input port routed to each output port and the power,
+ * volume level and volume mute of each port. Only the ports given are changed by the scene, every other port is left
+ * as is. Apply a scene with {@link AtlonaOpusProtocolHandler#applyScene(AtlonaOpusScene)} which only sends the
+ * commands needed to get from the current state to the scene.
+ */
+class AtlonaOpusScene {
+
+    /**
+     * The target input port by output port
+     */
+    private final Map<Integer, Integer> routes = new TreeMap<>();
+
+    /**
+     * The target power by port
+     */
+    private final Map<Integer, Boolean> portPower = new TreeMap<>();
+
+    /**
+     * The target volume level by audio port
+     */
+    private final Map<Integer, Double> volume = new TreeMap<>();
+
+    /**
+     * The target volume mute by audio port
+     */
+    private final Map<Integer, Boolean> volumeMute = new TreeMap<>();
+
+    /**
+     * Routes the input port to the output port
+     *
+     * @param inPortNbr a greater than zero input port number
+     * @param outPortNbr a greater than zero output port number
+     * @return this scene
+     */
+    AtlonaOpusScene route(int inPortNbr, int outPortNbr) {
+        if (inPortNbr <= 0) {
+            throw new IllegalArgumentException("inPortNbr must be greater than 0");
+        }
+        if (outPortNbr <= 0) {
+            throw new IllegalArgumentException("outPortNbr must be greater than 0");
+        }
+        routes.put(outPortNbr, inPortNbr);
+        return this;
+    }
+
+    /**
+     * Powers the port on or off
+     *
+     * @param portNbr a greater than zero port number
+     * @param on true to power on, false to power off
+     * @return this scene
+     */
+    AtlonaOpusScene portPower(int portNbr, boolean on) {
+        if (portNbr <= 0) {
+            throw new IllegalArgumentException("portNbr must be greater than 0");
+        }
+        portPower.put(portNbr, on);
+        return this;
+    }
+
+    /**
+     * Sets the volume level of the audio port
+     *
+     * @param portNbr a greater than zero port number
+     * @param level a volume level in decibels (must range from -79 to +15)
+     * @return this scene
+     */
+    AtlonaOpusScene volume(int portNbr, double level) {
+        if (portNbr <= 0) {
+            throw new IllegalArgumentException("portNbr must be greater than 0");
+        }
+        if (level < -79 || level > 15) {
+            throw new IllegalArgumentException("level must be between -79 to +15");
+        }
+        volume.put(portNbr, level);
+        return this;
+    }
+
+    /**
+     * Mutes or unmutes the audio port
+     *
+     * @param portNbr a greater than zero port number
+     * @param mute true to mute, false to unmute
+     * @return this scene
+     */
+    AtlonaOpusScene volumeMute(int portNbr, boolean mute) {
+        if (portNbr <= 0) {
+            throw new IllegalArgumentException("portNbr must be greater than 0");
+        }
+        volumeMute.put(portNbr, mute);
+        return this;
+    }
+
+    /**
+     * Returns the target input port by output port
+     *
+     * @return a non-null, possibly empty unmodifiable map
+     */
+    Map<Integer, Integer> getRoutes() {
+        return Collections.unmodifiableMap(routes);
+    }
+
+    /**
+     * Returns the target power by port
+     *
+     * @return a non-null, possibly empty unmodifiable map
+     */
+    Map<Integer, Boolean> getPortPower() {
+        return Collections.unmodifiableMap(portPower);
+    }
+
+    /**
+     * Returns the target volume level by audio port
+     *
+     * @return a non-null, possibly empty unmodifiable map
+     */
+    Map<Integer, Double> getVolume() {
+        return Collections.unmodifiableMap(volume);
+    }
+
+    /**
+     * Returns the target volume mute by audio port
+     *
+     * @return a non-null, possibly empty unmodifiable map
+     */
+    Map<Integer, Boolean> getVolumeMute() {
+        return Collections.unmodifiableMap(volumeMute);
+    }
+
+    /**
+     * Plans the cheapest way to get from the current routing to the scene's routing. The candidates are:
+     * <ul>
+     * <li>a routing command for each output port that differs</li>
+     * <li>routing an input port to all output ports ("x%dAll") followed by a routing command for each output port that
+     * then differs</li>
+     * <li>recalling a preset whose routing is known followed by a routing command for each output port that then
+     * differs</li>
+     * </ul>
+     * Output ports not in the scene keep their current routing - a candidate that would change them must restore them
+     * (which is only possible if their current routing is known). Ties go to the simpler candidate.
+     *
+     * @param current a non-null routing (input port by output port number, -1 if unknown)
+     * @param maxOutPortNbr the highest output port number (every output port up to it is routed by "x%dAll")
+     * @param presets a non-null map of preset number to the known routing of the preset (indexed like current)
+     * @return a non-null plan
+     */
+    RoutingPlan planRouting(int[] current, int maxOutPortNbr, Map<Integer, int[]> presets) {
+        // individual routing commands
+        RoutingPlan best = new RoutingPlan(0, 0);
+        for (Map.Entry<Integer, Integer> route : routes.entrySet()) {
+            if (routing(current, route.getKey()) != route.getValue()) {
+                best.routes.put(route.getKey(), route.getValue());
+            }
+        }
+
+        // routing an input port to all output ports
+        for (int inPortNbr : routes.values()) {
+            if (best.getCost() <= 1) {
+                break;
+            }
+            final int[] all = new int[maxOutPortNbr + 1];
+            Arrays.fill(all, inPortNbr);
+            final RoutingPlan plan = planFrom(new RoutingPlan(0, inPortNbr), all, current, maxOutPortNbr);
+            if (plan != null && plan.getCost() < best.getCost()) {
+                best = plan;
+            }
+        }
+
+        // recalling a preset
+        for (Map.Entry<Integer, int[]> preset : presets.entrySet()) {
+            if (best.getCost() <= 1) {
+                break;
+            }
+            final RoutingPlan plan = planFrom(new RoutingPlan(preset.getKey(), 0), preset.getValue(), current,
+                    maxOutPortNbr);
+            if (plan != null && plan.getCost() < best.getCost()) {
+                best = plan;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Completes the plan starting from the base routing (the routing after the plan's "x%dAll" or preset recall)
+     *
+     * @param plan a non-null plan with its "x%dAll" or preset set
+     * @param base a non-null routing after the plan's first command (indexed like current)
+     * @param current a non-null current routing
+     * @param maxOutPortNbr the highest output port number
+     * @return the plan or null if an output port not in the scene would be left in an unknown state
+     */
+    private RoutingPlan planFrom(RoutingPlan plan, int[] base, int[] current, int maxOutPortNbr) {
+        for (int outPortNbr = 1; outPortNbr <= maxOutPortNbr; outPortNbr++) {
+            final Integer target = routes.get(outPortNbr);
+            final int desired = target == null ? routing(current, outPortNbr) : target;
+            if (desired <= 0) {
+                return null;
+            }
+            if (routing(base, outPortNbr) != desired) {
+                plan.routes.put(outPortNbr, desired);
+            }
+        }
+
+        // scene routes beyond the output ports are always sent
+        for (Map.Entry<Integer, Integer> route : routes.entrySet()) {
+            if (route.getKey() > maxOutPortNbr) {
+                plan.routes.put(route.getKey(), route.getValue());
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Helper method to look up a routing
+     *
+     * @param routing a non-null routing
+     * @param outPortNbr an output port number
+     * @return the input port number or -1 if unknown
+     */
+    private static int routing(int[] routing, int outPortNbr) {
+        return outPortNbr < routing.length ? routing[outPortNbr] : -1;
+    }
+
+    /**
+     * The commands planned to apply the scene's routing
+     */
+    static class RoutingPlan {
+        /**
+         * The preset to recall first (0 if none)
+         */
+        private final int presetNbr;
+
+        /**
+         * The input port to route to all output ports first (0 if none)
+         */
+        private final int allInPortNbr;
+
+        /**
+         * The input port to route to each output port (after the preset or "x%dAll")
+         */
+        private final Map<Integer, Integer> routes = new TreeMap<>();
+
+        private RoutingPlan(int presetNbr, int allInPortNbr) {
+            this.presetNbr = presetNbr;
+            this.allInPortNbr = allInPortNbr;
+        }
+
+        /**
+         * Returns the preset to recall first
+         *
+         * @return the preset number or 0 if none
+         */
+        int getPresetNbr() {
+            return presetNbr;
+        }
+
+        /**
+         * Returns the input port to route to all output ports first
+         *
+         * @return the input port number or 0 if none
+         */
+        int getAllInPortNbr() {
+            return allInPortNbr;
+        }
+
+        /**
+         * Returns the input port to route to each output port
+         *
+         * @return a non-null, possibly empty unmodifiable map of input port by output port
+         */
+        Map<Integer, Integer> getRoutes() {
+            return Collections.unmodifiableMap(routes);
+        }
+
+        /**
+         * Returns the number of commands in the plan
+         *
+         * @return the number of commands
+         */
+        int getCost() {
+            return (presetNbr > 0 || allInPortNbr > 0 ? 1 : 0) + routes.size();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.eclipse.smarthome.core.thing.ThingStatus;
+import org.eclipse.smarthome.core.thing.ThingStatusDetail;
+import org.eclipse.smarthome.core.types.State;
+import org.openhab.binding.atlona.internal.AtlonaHandlerCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link AtlonaHandlerCallback} that decouples state updates from the thread parsing the responses. State changes
+ * are put on a bounded queue and delivered to the wrapped callback by a single consumer running on the scheduler, so a
+ * slow event bus (or persistence service) never holds up reading from the switch. Status changes and properties are
+ * rare and are passed straight through.
+ *
+ * The {@link Overflow} policy decides what is given up: {@link Overflow#COALESCE} replaces the queued update of a
+ * channel with each newer state (whether or not the queue is full) while {@link Overflow#DROP_OLDEST} queues every
+ * update. With either policy the oldest update is dropped when the queue is full - the drop listener is told the
+ * channel so a de-duplicating callback in front of the dispatcher can forget the state it believes was delivered. The
+ * peak queue depth, the dispatch latency (time spent queued) and the number of coalesced and dropped updates are
+ * published as thing properties (at most every {@link #METRICS_INTERVAL} milliseconds).
+ */
+class AtlonaOpusStateDispatcher implements AtlonaHandlerCallback {
+
+    private final Logger logger = LoggerFactory.getLogger(AtlonaOpusStateDispatcher.class);
+
+    /**
+     * The shortest time (in milliseconds) between publishing the metrics
+     */
+    private static final long METRICS_INTERVAL = 10000;
+
+    /**
+     * The policies deciding which updates are given up
+     */
+    enum Overflow {
+        /**
+         * A queued update for the same channel is always replaced (in place) by the newer state - a channel never has
+         * more than one update queued. Intermediate states of a channel may be skipped. The oldest update is dropped
+         * when the queue is full.
+         */
+        COALESCE,
+
+        /**
+         * Every update is queued - the oldest update is dropped when the queue is full. Every state of a channel is
+         * delivered unless dropped.
+         */
+        DROP_OLDEST;
+
+        /**
+         * Parses the configured policy (ignoring case, "-" and "_") - defaulting to {@link #COALESCE}
+         *
+         * @param policy a possibly null, possibly empty policy
+         * @return the non-null policy
+         */
+        static Overflow fromConfig(String policy) {
+            if (policy != null && "dropoldest".equalsIgnoreCase(policy.replace("_", "").replace("-", ""))) {
+                return DROP_OLDEST;
+            }
+            return COALESCE;
+        }
+    }
+
+    /**
+     * A queued state update
+     */
+    private static class Pending {
+        private final String channelId;
+        private State state;
+        private final long queuedAt;
+
+        private Pending(String channelId, State state, long queuedAt) {
+            this.channelId = channelId;
+            this.state = state;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    /**
+     * The scheduler the consumer runs on
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The callback the updates are delivered to
+     */
+    private final AtlonaHandlerCallback callback;
+
+    /**
+     * The most updates queued
+     */
+    private final int capacity;
+
+    /**
+     * The policy when the queue is full
+     */
+    private final Overflow overflow;
+
+    /**
+     * The queued updates (oldest first). Guarded by this.
+     */
+    private final Deque<Pending> queue = new ArrayDeque<>();
+
+    /**
+     * The queued updates by channel id (only used by {@link Overflow#COALESCE}). Guarded by this.
+     */
+    private final Map<String, Pending> queued = new HashMap<>();
+
+    /**
+     * The listener told the channel id of each dropped update (null if none)
+     */
+    private volatile Consumer<String> dropListener;
+
+    /**
+     * Whether the consumer is scheduled (or running). Guarded by this.
+     */
+    private boolean consuming;
+
+    /**
+     * Whether the dispatcher has been stopped. Guarded by this.
+     */
+    private boolean stopped;
+
+    // Metrics - guarded by this
+    private int peakDepth;
+    private long coalesced;
+    private long dropped;
+    private long latencyTotal;
+    private long latencyMax;
+    private int latencyCount;
+    private long metricsPublishedAt;
+
+    /**
+     * Constructs the dispatcher
+     *
+     * @param scheduler a non-null scheduler to run the consumer on
+     * @param config a non-null config (for the queue size and overflow policy)
+     * @param callback a non-null callback to deliver to
+     */
+    AtlonaOpusStateDispatcher(ScheduledExecutorService scheduler, AtlonaOpusConfig config,
+            AtlonaHandlerCallback callback) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler cannot be null");
+        }
+
+        if (config == null) {
+            throw new IllegalArgumentException("config cannot be null");
+        }
+
+        if (callback == null) {
+            throw new IllegalArgumentException("callback cannot be null");
+        }
+
+        this.scheduler = scheduler;
+        this.callback = callback;
+        this.capacity = Math.max(1, config.getDispatchQueueSize());
+        this.overflow = Overflow.fromConfig(config.getDispatchOverflow());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Queues the update (applying the overflow policy if full) and makes sure the consumer is scheduled
+     */
+    @Override
+    public void stateChanged(String channelId, State state) {
+        final long now = System.nanoTime();
+        String droppedChannelId = null;
+        boolean startConsumer = false;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+
+            if (overflow == Overflow.COALESCE) {
+                final Pending pending = queued.get(channelId);
+                if (pending != null) {
+                    pending.state = state;
+                    coalesced++;
+                    return;
+                }
+            }
+
+            if (queue.size() >= capacity) {
+                final Pending oldest = queue.pollFirst();
+                queued.remove(oldest.channelId, oldest);
+                dropped++;
+                droppedChannelId = oldest.channelId;
+                logger.debug("Dispatch queue full - dropped update of {}", oldest.channelId);
+            }
+
+            final Pending pending = new Pending(channelId, state, now);
+            queue.addLast(pending);
+            if (overflow == Overflow.COALESCE) {
+                queued.put(channelId, pending);
+            }
+            peakDepth = Math.max(peakDepth, queue.size());
+
+            if (!consuming) {
+                consuming = true;
+                startConsumer = true;
+            }
+        }
+
+        if (startConsumer) {
+            scheduler.execute(this::consume);
+        }
+
+        final Consumer<String> localListener = dropListener;
+        if (droppedChannelId != null && localListener != null) {
+            localListener.accept(droppedChannelId);
+        }
+    }
+
+    @Override
+    public void statusChanged(ThingStatus status, ThingStatusDetail detail, String msg) {
+        callback.statusChanged(status, detail, msg);
+    }
+
+    @Override
+    public void setProperty(String propertyName, String propertyValue) {
+        callback.setProperty(propertyName, propertyValue);
+    }
+
+    /**
+     * Sets the listener told the channel id of each update dropped because the queue was full
+     *
+     * @param dropListener a possibly null listener (null to stop listening)
+     */
+    void setDropListener(Consumer<String> dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Stops the dispatcher - anything queued is discarded and further updates are ignored
+     */
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+            queue.clear();
+            queued.clear();
+        }
+    }
+
+    /**
+     * The (single) consumer - delivers the queued updates (outside the lock) until the queue is empty then publishes
+     * the metrics if due
+     */
+    private void consume() {
+        while (true) {
+            final Pending pending;
+            final State state;
+            synchronized (this) {
+                pending = queue.pollFirst();
+                if (pending == null) {
+                    consuming = false;
+                    break;
+                }
+                queued.remove(pending.channelId, pending);
+                state = pending.state;
+
+                final long latency = System.nanoTime() - pending.queuedAt;
+                latencyTotal += latency;
+                latencyMax = Math.max(latencyMax, latency);
+                latencyCount++;
+            }
+
+            try {
+                callback.stateChanged(pending.channelId, state);
+            } catch (RuntimeException e) {
+                logger.warn("Exception dispatching state of {}: {}", pending.channelId, e.getMessage(), e);
+            }
+        }
+
+        publishMetrics();
+    }
+
+    /**
+     * Publishes the metrics (if {@link #METRICS_INTERVAL} has passed since they were last published) and starts a new
+     * interval for the peak depth and latencies
+     */
+    private void publishMetrics() {
+        final long now = System.currentTimeMillis();
+        final int depth;
+        final long latencyAvg;
+        final long latencyPeak;
+        final long coalescedTotal;
+        final long droppedTotal;
+        synchronized (this) {
+            if (now - metricsPublishedAt < METRICS_INTERVAL || latencyCount == 0) {
+                return;
+            }
+            metricsPublishedAt = now;
+
+            depth = peakDepth;
+            latencyAvg = TimeUnit.NANOSECONDS.toMillis(latencyTotal / latencyCount);
+            latencyPeak = TimeUnit.NANOSECONDS.toMillis(latencyMax);
+            coalescedTotal = coalesced;
+            droppedTotal = dropped;
+
+            peakDepth = queue.size();
+            latencyTotal = 0;
+            latencyMax = 0;
+            latencyCount = 0;
+        }
+
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_DISPATCH_QUEUE_DEPTH, String.valueOf(depth));
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_DISPATCH_LATENCY, String.valueOf(latencyAvg));
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_DISPATCH_LATENCY_MAX, String.valueOf(latencyPeak));
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_DISPATCH_COALESCED, String.valueOf(coalescedTotal));
+        callback.setProperty(AtlonaOpusConstants.PROPERTY_DISPATCH_DROPPED, String.valueOf(droppedTotal));
+    }
+}
@@ -24,4 +24,165 @@ public class AtlonaOpusUtilities {
     public static String createChannelID(String group, int portNbr, String channelId) {
         return group + portNbr + "#" + channelId;
     }
+
+    /**
+     * Helper method to determine if the character is an ascii digit (the regex "\d")
+     *
+     * @param c the character
+     * @return true if the character is between '0' and '9'
+     */
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Helper method to determine if the character is an ascii letter (the regex "\p{Alpha}")
+     *
+     * @param c the character
+     * @return true if the character is between 'a' and 'z' or 'A' and 'Z'
+     */
+    static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * Helper method to determine if the character is a word character (the regex "\w")
+     *
+     * @param c the character
+     * @return true if the character is an ascii letter, digit or underscore
+     */
+    static boolean isWordChar(char c) {
+        return isAlpha(c) || isDigit(c) || c == '_';
+    }
+
+    /**
+     * Helper method to find the end of a run of digits
+     *
+     * @param seq a non-null character sequence
+     * @param from the index to start from
+     * @return the index of the first non-digit at or after from (or the length of the sequence)
+     */
+    static int skipDigits(CharSequence seq, int from) {
+        final int len = seq.length();
+        int idx = from;
+        while (idx < len && isDigit(seq.charAt(idx))) {
+            idx++;
+        }
+        return idx;
+    }
+
+    /**
+     * Helper method to parse a run of digits without creating any intermediate strings. The range is assumed to only
+     * contain digits (see {@link #skipDigits(CharSequence, int)}).
+     *
+     * @param seq a non-null character sequence
+     * @param from the starting index (inclusive)
+     * @param to the ending index (exclusive)
+     * @return the parsed number or -1 if the range is empty or the number does not fit into an int
+     */
+    static int parseDigits(CharSequence seq, int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        long value = 0;
+        for (int idx = from; idx < to; idx++) {
+            value = value * 10 + (seq.charAt(idx) - '0');
+            if (value > Integer.MAX_VALUE) {
+                return -1;
+            }
+        }
+        return (int) value;
+    }
+
+    /**
+     * Helper method to determine if the range only contains word characters (the regex "\w+")
+     *
+     * @param seq a non-null character sequence
+     * @param from the starting index (inclusive)
+     * @param to the ending index (exclusive)
+     * @return true if the range is not empty and only contains word characters
+     */
+    static boolean isWord(CharSequence seq, int from, int to) {
+        if (from >= to) {
+            return false;
+        }
+        for (int idx = from; idx < to; idx++) {
+            if (!isWordChar(seq.charAt(idx))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to determine if the token appears in the sequence at the given index
+     *
+     * @param seq a non-null character sequence
+     * @param from the index to compare at
+     * @param token a non-null token
+     * @return true if the sequence contains the token starting at from
+     */
+    static boolean regionMatches(CharSequence seq, int from, String token) {
+        final int tokenLen = token.length();
+        if (from < 0 || from + tokenLen > seq.length()) {
+            return false;
+        }
+        for (int idx = 0; idx < tokenLen; idx++) {
+            if (seq.charAt(from + idx) != token.charAt(idx)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Helper method to determine if the remainder of the sequence (starting at from) is exactly the token
+     *
+     * @param seq a non-null character sequence
+     * @param from the index the remainder starts at
+     * @param token a non-null token
+     * @return true if the remainder equals the token
+     */
+    static boolean remainderEquals(CharSequence seq, int from, String token) {
+        return from + token.length() == seq.length() && regionMatches(seq, from, token);
+    }
+
+    /**
+     * Helper method to find the token in the sequence
+     *
+     * @param seq a non-null character sequence
+     * @param token a non-null, non-empty token
+     * @param from the index to start searching from
+     * @return the index of the token or -1 if not found
+     */
+    static int indexOf(CharSequence seq, String token, int from) {
+        if (seq instanceof String) {
+            return ((String) seq).indexOf(token, from);
+        }
+        final int last = seq.length() - token.length();
+        final char first = token.charAt(0);
+        for (int idx = Math.max(from, 0); idx <= last; idx++) {
+            if (seq.charAt(idx) == first && regionMatches(seq, idx, token)) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Helper method to find the end of the digits that immediately follow a prefix (the regex "prefix\d+")
+     *
+     * @param seq a non-null character sequence
+     * @param prefix a non-null prefix
+     * @return the index following the digits or -1 if the sequence does not start with the prefix followed by at least
+     *         one digit
+     */
+    static int prefixedDigitsEnd(CharSequence seq, String prefix) {
+        if (!regionMatches(seq, 0, prefix)) {
+            return -1;
+        }
+        final int start = prefix.length();
+        final int end = skipDigits(seq, start);
+        return end == start ? -1 : end;
+    }
 }
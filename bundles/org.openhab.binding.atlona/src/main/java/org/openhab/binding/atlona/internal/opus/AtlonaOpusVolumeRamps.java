@@ -0,0 +1,325 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Ramps (fades) the volume of audio ports from their current level to a target level over a duration. Every ramp is
+ * advanced by a single shared tick (running only while there are ramps) rather than a task per ramp - each tick sends
+ * the next whole decibel step of a ramp if it differs from the last step sent. A port never has more than one step
+ * awaiting the switch's response (a slow switch skips intermediate steps rather than being flooded) and the steps go
+ * through the {@link AtlonaOpusCommandPipeline} (and its rate limiter) like any other command. The switch's response to
+ * each step updates the volume channel - so progress is reported without any refresh queries.
+ *
+ * Starting a ramp for a port that is already ramping replaces that ramp - the new ramp continues from the last step
+ * sent (the replaced ramp's future is cancelled).
+ */
+class AtlonaOpusVolumeRamps {
+
+    private final Logger logger = LoggerFactory.getLogger(AtlonaOpusVolumeRamps.class);
+
+    /**
+     * The curves a ramp can follow
+     */
+    enum Curve {
+        /**
+         * The level changes at a constant rate
+         */
+        LINEAR,
+
+        /**
+         * The level changes slowly at first then quickly
+         */
+        EASE_IN,
+
+        /**
+         * The level changes quickly at first then slowly
+         */
+        EASE_OUT;
+
+        /**
+         * Applies the curve to the progress of the ramp
+         *
+         * @param progress the progress of the ramp (from 0 to 1)
+         * @return the fraction (from 0 to 1) of the level change to apply
+         */
+        double apply(double progress) {
+            switch (this) {
+                case EASE_IN:
+                    return progress * progress;
+                case EASE_OUT:
+                    return 1 - (1 - progress) * (1 - progress);
+                default:
+                    return progress;
+            }
+        }
+
+        /**
+         * Parses the curve (ignoring case, "-" and "_") - defaulting to {@link #LINEAR}
+         *
+         * @param curve a possibly null, possibly empty curve
+         * @return the non-null curve
+         */
+        static Curve fromString(String curve) {
+            if (curve != null) {
+                final String name = curve.replace("_", "").replace("-", "");
+                for (Curve c : values()) {
+                    if (c.name().replace("_", "").equalsIgnoreCase(name)) {
+                        return c;
+                    }
+                }
+            }
+            return LINEAR;
+        }
+    }
+
+    /**
+     * Sends a volume step to the switch
+     */
+    interface StepSender {
+        /**
+         * Sends the volume level to the audio port
+         *
+         * @param portNbr a greater than zero port number
+         * @param level the volume level in decibels
+         * @return a non-null future that completes when the switch responds
+         */
+        CompletableFuture<Void> send(int portNbr, double level);
+    }
+
+    /**
+     * A ramp in progress. Guarded by the {@link AtlonaOpusVolumeRamps}.
+     */
+    private static class Ramp {
+        private final int portNbr;
+        private final double from;
+        private final double to;
+        private final long startedAt;
+        private final long durationMillis;
+        private final Curve curve;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private double lastSent = Double.NaN;
+        private CompletableFuture<Void> step;
+
+        private Ramp(int portNbr, double from, double to, long startedAt, long durationMillis, Curve curve) {
+            this.portNbr = portNbr;
+            this.from = from;
+            this.to = to;
+            this.startedAt = startedAt;
+            this.durationMillis = durationMillis;
+            this.curve = curve;
+        }
+    }
+
+    /**
+     * The scheduler the tick runs on
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * The sender of the steps
+     */
+    private final StepSender sender;
+
+    /**
+     * The time (in milliseconds) between ticks
+     */
+    private final long intervalMillis;
+
+    /**
+     * The ramps in progress by port number. Guarded by this.
+     */
+    private final Map<Integer, Ramp> ramps = new HashMap<>();
+
+    /**
+     * The tick advancing the ramps (null if there are no ramps). Guarded by this.
+     */
+    private ScheduledFuture<?> tick;
+
+    /**
+     * Constructs the ramps from the given parameters
+     *
+     * @param scheduler a non-null scheduler
+     * @param sender a non-null sender of the steps
+     * @param intervalMillis a greater than 0 time (in milliseconds) between steps
+     */
+    AtlonaOpusVolumeRamps(ScheduledExecutorService scheduler, StepSender sender, long intervalMillis) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler cannot be null");
+        }
+
+        if (sender == null) {
+            throw new IllegalArgumentException("sender cannot be null");
+        }
+
+        if (intervalMillis < 1) {
+            throw new IllegalArgumentException("intervalMillis must be greater than 0");
+        }
+
+        this.scheduler = scheduler;
+        this.sender = sender;
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Starts ramping the volume of the audio port. If the port is already ramping, that ramp is replaced (and the new
+     * ramp starts from the last step sent by it).
+     *
+     * @param portNbr a greater than zero port number
+     * @param from the current volume level (in decibels) of the port
+     * @param to the target volume level (in decibels)
+     * @param durationMillis the greater than or equal to 0 duration (in milliseconds) of the ramp
+     * @param curve a non-null curve
+     * @return a non-null future that completes when the switch has responded to the last step (or fails if a step
+     *         failed or the ramp was replaced or cancelled)
+     */
+    CompletableFuture<Void> start(int portNbr, double from, double to, long durationMillis, Curve curve) {
+        if (portNbr <= 0) {
+            throw new IllegalArgumentException("portNbr must be greater than 0");
+        }
+        if (to < -79 || to > 15) {
+            throw new IllegalArgumentException("to must be between -79 to +15");
+        }
+        if (durationMillis < 0) {
+            throw new IllegalArgumentException("durationMillis must be greater than or equal to 0");
+        }
+        if (curve == null) {
+            throw new IllegalArgumentException("curve cannot be null");
+        }
+
+        final Ramp replaced;
+        final Ramp ramp;
+        synchronized (this) {
+            replaced = ramps.get(portNbr);
+            final double start = replaced == null || Double.isNaN(replaced.lastSent) ? from : replaced.lastSent;
+            ramp = new Ramp(portNbr, start, to, System.currentTimeMillis(), durationMillis, curve);
+            if (replaced != null) {
+                ramp.step = replaced.step;
+            }
+            ramps.put(portNbr, ramp);
+            if (tick == null) {
+                tick = scheduler.scheduleAtFixedRate(this::tick, 0, intervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (replaced != null) {
+            logger.debug("Replaced the volume ramp of port {}", portNbr);
+            replaced.future.completeExceptionally(new CancellationException("Volume ramp replaced"));
+        }
+        return ramp.future;
+    }
+
+    /**
+     * Cancels the ramp of the audio port (if any)
+     *
+     * @param portNbr the port number
+     * @return true if a ramp was cancelled
+     */
+    boolean cancel(int portNbr) {
+        final Ramp ramp;
+        synchronized (this) {
+            ramp = ramps.remove(portNbr);
+        }
+        if (ramp == null) {
+            return false;
+        }
+        ramp.future.completeExceptionally(new CancellationException("Volume ramp cancelled"));
+        return true;
+    }
+
+    /**
+     * Stops all ramps (their futures are cancelled) and the tick
+     */
+    void stop() {
+        final List<Ramp> stopped;
+        synchronized (this) {
+            stopped = new ArrayList<>(ramps.values());
+            ramps.clear();
+            if (tick != null) {
+                tick.cancel(false);
+                tick = null;
+            }
+        }
+        for (Ramp ramp : stopped) {
+            ramp.future.completeExceptionally(new CancellationException("Volume ramp cancelled"));
+        }
+    }
+
+    /**
+     * Advances every ramp - sending the next step of each ramp that has no step awaiting a response and whose level
+     * has changed. Finished ramps are removed and the tick stops once there are no ramps left.
+     */
+    private void tick() {
+        final long now = System.currentTimeMillis();
+        final List<Ramp> stepping = new ArrayList<>();
+        final List<Ramp> finished = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<Ramp> iter = ramps.values().iterator(); iter.hasNext();) {
+                final Ramp ramp = iter.next();
+                if (ramp.step != null && !ramp.step.isDone()) {
+                    continue;
+                }
+
+                final double progress = ramp.durationMillis == 0 ? 1
+                        : Math.min(1, (double) (now - ramp.startedAt) / ramp.durationMillis);
+                final double level = progress >= 1 ? ramp.to
+                        : Math.round(ramp.from + (ramp.to - ramp.from) * ramp.curve.apply(progress));
+                if (Double.compare(level, ramp.lastSent) != 0) {
+                    ramp.lastSent = level;
+                    stepping.add(ramp);
+                }
+                if (progress >= 1) {
+                    iter.remove();
+                    finished.add(ramp);
+                }
+            }
+
+            if (ramps.isEmpty() && tick != null) {
+                tick.cancel(false);
+                tick = null;
+            }
+        }
+
+        for (Ramp ramp : stepping) {
+            final CompletableFuture<Void> step = sender.send(ramp.portNbr, ramp.lastSent);
+            synchronized (this) {
+                ramp.step = step;
+            }
+            step.whenComplete((r, e) -> {
+                if (e != null) {
+                    synchronized (this) {
+                        ramps.remove(ramp.portNbr, ramp);
+                    }
+                    ramp.future.completeExceptionally(e);
+                }
+            });
+        }
+
+        for (Ramp ramp : finished) {
+            final CompletableFuture<Void> step;
+            synchronized (this) {
+                step = ramp.step;
+            }
+            if (step == null) {
+                ramp.future.complete(null);
+            } else {
+                step.whenComplete((r, e) -> {
+                    if (e == null) {
+                        ramp.future.complete(null);
+                    }
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.openhab.binding.atlona.internal.net;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Frames recorded (and constructed) telnet output with the {@link LineFramer} - whole and split at every possible
+ * point across two reads - and compares the lines framed with the lines expected.
+ */
+@RunWith(Parameterized.class)
+public class LineFramerTest {
+
+    private static final int MAX_LINE_LENGTH = 32;
+
+    /**
+     * The telnet output (bytes given as ISO-8859-1 characters) and the lines expected to be framed from it
+     *
+     * @return the non-null parameters
+     */
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> output() {
+        return Arrays.asList(new Object[][] {
+                // lines terminated by CR/LF, a bare LF and empty lines
+                { "PWON\r\nx1AVx2\r\n", lines("PWON", "x1AVx2") }, { "PWON\nIRON\n", lines("PWON", "IRON") },
+                { "\r\n\r\nLock\r\n", lines("", "", "Lock") }, { "Lo\rck\r\n", lines("Lock") },
+                // prompts are framed without the ": " but a line with a space before the ":" isn't a prompt
+                { "\r\nLogin: ", lines("", "Login") }, { "Password: ", lines("Password") },
+                { "Command FAILED: (x)\r\n", lines("Command FAILED: (x)") },
+                // a partial line is held until terminated
+                { "PWON\r\nVOUT1", lines("PWON") },
+                // telnet negotiation, subnegotiation and NULs are stripped and an escaped IAC is kept
+                { "\u00ff\u00fb\u0001\u00ff\u00fd\u0003Login: ", lines("Login") },
+                { "PW\u00ff\u00fa\u0018\u0001\u00ff\u00f0ON\r\n", lines("PWON") },
+                { "PW\u00ff\u00fa\u0018\u00ff\u00ff\u0001\u00ff\u00f0ON\r\n", lines("PWON") },
+                { "P\u0000W\u00ff\u00f1ON\r\n", lines("PWON") }, { "a\u00ff\u00ffb\r\n", lines("a\u00ffb") },
+                // a line reaching the maximum length is framed as is
+                { "0123456789abcdef0123456789abcdefXY\r\n", lines("0123456789abcdef0123456789abcdef", "XY") }, });
+    }
+
+    private final String output;
+    private final List<String> expected;
+
+    public LineFramerTest(String output, List<String> expected) {
+        this.output = output;
+        this.expected = expected;
+    }
+
+    @Test
+    public void framesWholeOutput() {
+        final LineFramer framer = new LineFramer(MAX_LINE_LENGTH);
+        final List<String> framed = new ArrayList<>();
+        framer.frame(bytes(output, 0, output.length()), line -> framed.add(line.toString()));
+        assertEquals(expected, framed);
+    }
+
+    @Test
+    public void framesSplitOutput() {
+        for (int split = 1; split < output.length(); split++) {
+            final LineFramer framer = new LineFramer(MAX_LINE_LENGTH);
+            final List<String> framed = new ArrayList<>();
+            framer.frame(bytes(output, 0, split), line -> framed.add(line.toString()));
+            framer.frame(bytes(output, split, output.length()), line -> framed.add(line.toString()));
+            assertEquals("split at " + split, expected, framed);
+        }
+    }
+
+    @Test
+    public void resetForgetsPartialLineAndSequence() {
+        final LineFramer framer = new LineFramer(MAX_LINE_LENGTH);
+        final List<String> framed = new ArrayList<>();
+        framer.frame(bytes(output, 0, output.length()), line -> framed.add(line.toString()));
+        // a partial line followed by the start of a subnegotiation (which would swallow everything up to IAC SE)
+        framer.frame(bytes("VOUT1\u00ff\u00fa", 0, 7), line -> framed.add(line.toString()));
+        framer.reset();
+        framer.frame(bytes(output, 0, output.length()), line -> framed.add(line.toString()));
+
+        final List<String> twice = new ArrayList<>(expected);
+        twice.addAll(expected);
+        assertEquals(twice, framed);
+    }
+
+    private static List<String> lines(String... lines) {
+        return Arrays.asList(lines);
+    }
+
+    private static ByteBuffer bytes(String output, int from, int to) {
+        return ByteBuffer.wrap(output.substring(from, to).getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,76 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link AtlonaOpusRateLimiter} token bucket. The rate (500 commands per second - a token every 2ms) is
+ * chosen so the token arithmetic is exact.
+ */
+public class AtlonaOpusRateLimiterTest {
+
+    private static final long START = 1_000_000;
+
+    @Test
+    public void unlimitedNeverWaits() {
+        final AtlonaOpusRateLimiter limiter = new AtlonaOpusRateLimiter(0, 1);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limiter.tryAcquire(START));
+        }
+        assertEquals(0, limiter.nextTokenIn(START));
+    }
+
+    @Test
+    public void startsWithFullBurst() {
+        final AtlonaOpusRateLimiter limiter = new AtlonaOpusRateLimiter(500, 3);
+        assertEquals(0, limiter.nextTokenIn(START));
+        assertTrue(limiter.tryAcquire(START));
+        assertTrue(limiter.tryAcquire(START));
+        assertTrue(limiter.tryAcquire(START));
+        assertFalse(limiter.tryAcquire(START));
+    }
+
+    @Test
+    public void refillsAtRate() {
+        final AtlonaOpusRateLimiter limiter = new AtlonaOpusRateLimiter(500, 1);
+        assertTrue(limiter.tryAcquire(START));
+        assertEquals(2, limiter.nextTokenIn(START));
+        assertFalse(limiter.tryAcquire(START + 1));
+        assertEquals(1, limiter.nextTokenIn(START + 1));
+        assertTrue(limiter.tryAcquire(START + 2));
+        assertFalse(limiter.tryAcquire(START + 2));
+    }
+
+    @Test
+    public void refillIsCappedAtBurst() {
+        final AtlonaOpusRateLimiter limiter = new AtlonaOpusRateLimiter(500, 2);
+        assertTrue(limiter.tryAcquire(START));
+        assertTrue(limiter.tryAcquire(START));
+
+        // idle long enough for many tokens - only the burst is kept
+        final long later = START + 10_000;
+        assertTrue(limiter.tryAcquire(later));
+        assertTrue(limiter.tryAcquire(later));
+        assertFalse(limiter.tryAcquire(later));
+        assertEquals(2, limiter.nextTokenIn(later));
+    }
+
+    @Test
+    public void clockGoingBackwardsAddsNoTokens() {
+        final AtlonaOpusRateLimiter limiter = new AtlonaOpusRateLimiter(500, 1);
+        assertTrue(limiter.tryAcquire(START));
+        assertFalse(limiter.tryAcquire(START - 100));
+        assertTrue(limiter.tryAcquire(START + 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeRate() {
+        new AtlonaOpusRateLimiter(-1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBurst() {
+        new AtlonaOpusRateLimiter(10, 0);
+    }
+}
@@ -0,0 +1,350 @@
+package org.openhab.binding.atlona.internal.opus;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.smarthome.core.library.types.DecimalType;
+import org.eclipse.smarthome.core.library.types.OnOffType;
+import org.eclipse.smarthome.core.thing.ThingStatus;
+import org.eclipse.smarthome.core.thing.ThingStatusDetail;
+import org.eclipse.smarthome.core.thing.ThingUID;
+import org.eclipse.smarthome.core.types.State;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.openhab.binding.atlona.internal.AtlonaHandlerCallback;
+import org.openhab.binding.atlona.internal.net.SocketSession;
+import org.openhab.binding.atlona.internal.net.SocketSessionListener;
+
+/**
+ * Runs recorded switch responses through the regex dispatching the {@link AtlonaOpusProtocolHandler} used to do (see
+ * {@link BaselineDispatcher}) and through the {@link AtlonaOpusProtocolHandler.NormalResponseCallback} and compares
+ * the state changes, properties and status changes each results in. A response the new dispatcher deliberately
+ * handles differently lists the results expected of the new dispatcher instead.
+ */
+@RunWith(Parameterized.class)
+public class AtlonaOpusResponseDispatchTest {
+
+    private static final ThingUID THING_UID = new ThingUID("atlona", "at-opus-46m", "test");
+
+    /**
+     * The recorded responses - each with null if the new dispatcher must match the baseline or the results expected of
+     * the new dispatcher if it deliberately differs
+     *
+     * @return the non-null parameters
+     */
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> responses() {
+        return Arrays.asList(new Object[][] {
+                // switch power, version and type
+                { "PWON", null }, { "PWOFF", null }, { "PWSTANDBY", null }, { "Firmware 1.0.32", null },
+                { "AT-OPUS-46M", null },
+                // panel lock and IR
+                { "Lock", null }, { "Unlock", null }, { "IRON", null }, { "IROFF", null },
+                // routing - a single pair, a status line of pairs and the video/audio input responses
+                { "x1AVx2", null }, { "x12AVx3", null }, { "x1AVx1,x2AVx2,x3AVx3,x4AVx4", null },
+                { "x4AVx1,x3AVx2", null }, { "x2V3x", null }, { "x3A1x", null },
+                // port power and all
+                { "x3$ on", null }, { "x3$ off", null }, { "x3$ standby", null }, { "x2All", null }, { "All#", null },
+                // mirroring
+                { "MirrorHdmi5 Out3", null }, { "MirrorHdmi6 on2", null }, { "MirrorHdmi5 off", null },
+                { "MirrorHdmi5 Off", null }, { "UnMirror6", null },
+                // volume and mute
+                { "VOUT1 -20", null }, { "VOUT2 0", null }, { "VOUT3 15", null }, { "VOUT1 loud", null },
+                { "VOUTMute2 on", null }, { "VOUTMute2 off", null }, { "VOUTMute2 maybe", null },
+                // presets, broadcast and reset
+                { "Recall3", null }, { "Broadcast on", null }, { "Mreset", null },
+                // failures and noise
+                { "Command FAILED: (PWSTA)", null }, { "Command FAILED: (ping)", null }, { "Welcome", null },
+                { "PW", null }, { "x", null }, { "VOUT", null },
+                // a failure echoing a routing command isn't a routing response (the baseline routed the port)
+                { "Command FAILED: (x1AVx2)", Collections.emptyList() }, });
+    }
+
+    private final String response;
+    private final List<List<Object>> expected;
+
+    private ScheduledExecutorService scheduler;
+
+    public AtlonaOpusResponseDispatchTest(String response, List<List<Object>> expected) {
+        this.response = response;
+        this.expected = expected;
+    }
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void dispatchesLikeBaseline() {
+        final List<List<Object>> baseline = new ArrayList<>();
+        new BaselineDispatcher(new RecordingCallback(baseline)).responseReceived(response);
+
+        final List<List<Object>> actual = new ArrayList<>();
+        final AtlonaOpusCapabilities capabilities = new AtlonaOpusCapabilities(4, 4,
+                new HashSet<>(Arrays.asList(5, 6)));
+        final AtlonaOpusProtocolHandler handler = new AtlonaOpusProtocolHandler(new NullSession(),
+                new AtlonaOpusConfig(), capabilities, new RecordingCallback(actual),
+                new AtlonaOpusChannelIndex(THING_UID, capabilities), scheduler);
+        handler.new NormalResponseCallback().responseReceived((CharSequence) response);
+
+        if (expected == null) {
+            assertEquals(baseline, actual);
+        } else {
+            assertNotEquals(baseline, actual);
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * Records the callbacks as lists of the callback name and its arguments
+     */
+    private static class RecordingCallback implements AtlonaHandlerCallback {
+        private final List<List<Object>> recorded;
+
+        RecordingCallback(List<List<Object>> recorded) {
+            this.recorded = recorded;
+        }
+
+        @Override
+        public void statusChanged(ThingStatus status, ThingStatusDetail detail, String msg) {
+            recorded.add(Arrays.asList("status", status, detail, msg));
+        }
+
+        @Override
+        public void stateChanged(String channelId, State state) {
+            recorded.add(Arrays.asList("state", channelId, state));
+        }
+
+        @Override
+        public void setProperty(String propertyName, String propertyValue) {
+            recorded.add(Arrays.asList("property", propertyName, propertyValue));
+        }
+    }
+
+    /**
+     * A session that is always connected and ignores the commands sent to it
+     */
+    private static class NullSession implements SocketSession {
+        @Override
+        public void addListener(SocketSessionListener listener) {
+        }
+
+        @Override
+        public void clearListeners() {
+        }
+
+        @Override
+        public boolean removeListener(SocketSessionListener listener) {
+            return true;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public void sendCommand(String command) {
+        }
+    }
+
+    /**
+     * The regex dispatching of the original normal response callback - the patterns and the state each response
+     * resulted in (responses that only resulted in commands being sent result in nothing here).
+     */
+    private static class BaselineDispatcher {
+        private static final String RSP_ALL = "All#";
+        private static final String RSP_LOCK = "Lock";
+        private static final String RSP_UNLOCK = "Unlock";
+        private static final String RSP_IROFF = "IROFF";
+        private static final String RSP_IRON = "IRON";
+        private static final String RSP_MATRIX_RESET = "Mreset";
+        private static final String RSP_PING = "Command FAILED: (ping)";
+
+        private final Pattern powerStatusPattern = Pattern.compile("PW(\\w+)");
+        private final Pattern versionPattern = Pattern.compile("Firmware (.*)");
+        private final Pattern typePattern = Pattern.compile("AT-OPUS-(\\d+)M");
+        private final Pattern portStatusPattern = Pattern.compile("x(\\d+)AVx(\\d+),?+");
+        private final Pattern portPowerPattern = Pattern.compile("x(\\d+)\\$ (\\w+)");
+        private final Pattern portAllPattern = Pattern.compile("x(\\d+)All");
+        private final Pattern portVideoInputPattern = Pattern.compile("x(\\d+)V(\\d+)x");
+        private final Pattern portAudioInputPattern = Pattern.compile("x(\\d+)A(\\d+)x");
+        private final Pattern portMirrorPattern = Pattern.compile("MirrorHdmi(\\d+) (\\p{Alpha}+)(\\d*)");
+        private final Pattern portUnmirrorPattern = Pattern.compile("UnMirror(\\d+)");
+        private final Pattern volumePattern = Pattern.compile("VOUT(\\d+) (-?\\d+)");
+        private final Pattern volumeMutePattern = Pattern.compile("VOUTMute(\\d+) (\\w+)");
+        private final Pattern saveIoPattern = Pattern.compile("Save(\\d+)");
+        private final Pattern recallIoPattern = Pattern.compile("Recall(\\d+)");
+        private final Pattern clearIoPattern = Pattern.compile("Clear(\\d+)");
+        private final Pattern broadCastPattern = Pattern.compile("Broadcast (\\w+)");
+
+        private final AtlonaHandlerCallback callback;
+
+        BaselineDispatcher(AtlonaHandlerCallback callback) {
+            this.callback = callback;
+        }
+
+        void responseReceived(String response) {
+            if (response.isEmpty() || RSP_PING.equals(response)) {
+                return;
+            }
+
+            Matcher m = portStatusPattern.matcher(response);
+            if (m.find()) {
+                portOutput(m);
+                return;
+            }
+
+            // the video and audio input responses fell through to the following patterns
+            m = portVideoInputPattern.matcher(response);
+            if (m.matches()) {
+                portOutput(m);
+            }
+
+            m = portAudioInputPattern.matcher(response);
+            if (m.matches()) {
+                portOutput(m);
+            }
+
+            m = powerStatusPattern.matcher(response);
+            if (m.matches()) {
+                if ("ON".equals(m.group(1)) || "OFF".equals(m.group(1))) {
+                    state(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_POWER,
+                            OnOffType.valueOf(m.group(1)));
+                }
+                return;
+            }
+
+            m = versionPattern.matcher(response);
+            if (m.matches()) {
+                callback.setProperty(AtlonaOpusConstants.PROPERTY_VERSION, m.group(1));
+                return;
+            }
+
+            m = typePattern.matcher(response);
+            if (m.matches()) {
+                callback.setProperty(AtlonaOpusConstants.PROPERTY_TYPE, response);
+                return;
+            }
+
+            m = portPowerPattern.matcher(response);
+            if (m.matches()) {
+                onOff(m, AtlonaOpusConstants.GROUP_PORT, AtlonaOpusConstants.CHANNEL_PORTPOWER);
+                return;
+            }
+
+            m = volumePattern.matcher(response);
+            if (m.matches()) {
+                state(AtlonaOpusConstants.GROUP_VOLUME, Integer.parseInt(m.group(1)),
+                        AtlonaOpusConstants.CHANNEL_VOLUME, new DecimalType(Double.parseDouble(m.group(2))));
+                return;
+            }
+
+            m = volumeMutePattern.matcher(response);
+            if (m.matches()) {
+                onOff(m, AtlonaOpusConstants.GROUP_VOLUME, AtlonaOpusConstants.CHANNEL_VOLUME_MUTE);
+                return;
+            }
+
+            m = portMirrorPattern.matcher(response);
+            if (m.matches()) {
+                final int hdmiPortNbr = Integer.parseInt(m.group(1));
+                if ("off".equals(m.group(2).toLowerCase())) {
+                    state(AtlonaOpusConstants.GROUP_MIRROR, hdmiPortNbr, AtlonaOpusConstants.CHANNEL_PORTMIRRORENABLED,
+                            OnOffType.OFF);
+                } else {
+                    state(AtlonaOpusConstants.GROUP_MIRROR, hdmiPortNbr, AtlonaOpusConstants.CHANNEL_PORTMIRROR,
+                            new DecimalType(Integer.parseInt(m.group(3))));
+                    state(AtlonaOpusConstants.GROUP_MIRROR, hdmiPortNbr, AtlonaOpusConstants.CHANNEL_PORTMIRRORENABLED,
+                            OnOffType.ON);
+                }
+                return;
+            }
+
+            m = portUnmirrorPattern.matcher(response);
+            if (m.matches()) {
+                state(AtlonaOpusConstants.GROUP_MIRROR, Integer.parseInt(m.group(1)),
+                        AtlonaOpusConstants.CHANNEL_PORTMIRROR, new DecimalType(0));
+                return;
+            }
+
+            // port all, save, recall, clear and broadcast only resulted in commands (if anything)
+            if (portAllPattern.matcher(response).matches() || saveIoPattern.matcher(response).matches()
+                    || recallIoPattern.matcher(response).matches() || clearIoPattern.matcher(response).matches()
+                    || broadCastPattern.matcher(response).matches() || RSP_ALL.equals(response)) {
+                return;
+            }
+
+            if (RSP_IRON.equals(response) || RSP_IROFF.equals(response)) {
+                state(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_IRENABLE,
+                        RSP_IRON.equals(response) ? OnOffType.ON : OnOffType.OFF);
+                return;
+            }
+
+            if (RSP_LOCK.equals(response) || RSP_UNLOCK.equals(response)) {
+                state(AtlonaOpusConstants.GROUP_PRIMARY, AtlonaOpusConstants.CHANNEL_PANELLOCK,
+                        RSP_LOCK.equals(response) ? OnOffType.ON : OnOffType.OFF);
+                return;
+            }
+
+            if (RSP_MATRIX_RESET.equals(response)) {
+                callback.statusChanged(ThingStatus.OFFLINE, ThingStatusDetail.COMMUNICATION_ERROR,
+                        "System is rebooting due to matrix reset");
+                return;
+            }
+
+            // command failures (and anything else) were only logged
+        }
+
+        private void portOutput(Matcher m) {
+            m.reset();
+            while (m.find()) {
+                state(AtlonaOpusConstants.GROUP_PORT, Integer.parseInt(m.group(2)),
+                        AtlonaOpusConstants.CHANNEL_PORTOUTPUT, new DecimalType(Integer.parseInt(m.group(1))));
+            }
+        }
+
+        private void onOff(Matcher m, String group, String channel) {
+            if ("on".equals(m.group(2)) || "off".equals(m.group(2))) {
+                state(group, Integer.parseInt(m.group(1)), channel, "on".equals(m.group(2)) ? OnOffType.ON
+                        : OnOffType.OFF);
+            }
+        }
+
+        private void state(String group, String channel, State state) {
+            callback.stateChanged(AtlonaOpusUtilities.createChannelID(group, channel), state);
+        }
+
+        private void state(String group, int portNbr, String channel, State state) {
+            callback.stateChanged(AtlonaOpusUtilities.createChannelID(group, portNbr, channel), state);
+        }
+    }
+}